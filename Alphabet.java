@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+/** The characters of a corpus, numbered 0, 1, 2, ... in the order in which
+ *  they were first seen. The ids are dense, so tables indexed by them have an
+ *  entry per character of the corpus rather than per char value. */
+public class Alphabet {
+
+    // The id + 1 of each char value, or 0 if it was not seen.
+    private final int[] ids;
+
+    // The character of each id.
+    private char[] chars;
+
+    // The number of characters seen.
+    private int size;
+
+    /** Constructs an empty alphabet. */
+    public Alphabet() {
+        ids = new int[Character.MAX_VALUE + 1];
+        chars = new char[16];
+    }
+
+    /** Returns the number of characters in this alphabet. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the id of the given character, adding it to this alphabet if it
+     *  was not seen before. */
+    public int add(char chr) {
+        if (ids[chr] == 0) {
+            if (size == chars.length) chars = Arrays.copyOf(chars, 2 * size);
+            chars[size] = chr;
+            ids[chr] = ++size;
+        }
+        return ids[chr] - 1;
+    }
+
+    /** Returns the id of the given character, or -1 if it is not in this alphabet. */
+    public int id(char chr) {
+        return ids[chr] - 1;
+    }
+
+    /** Returns the character with the given id. */
+    public char charAt(int id) {
+        return chars[id];
+    }
+}
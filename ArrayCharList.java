@@ -0,0 +1,270 @@
+import java.util.Arrays;
+
+/** A list of character data objects kept in parallel arrays, instead of a
+ *  linked list of Node and CharData objects: the characters, counts,
+ *  probabilities and cumulative probabilities of the elements. Has the API and
+ *  the order of List, so a model can use either.
+ *  <p>
+ *  The elements are stored in reverse: the element at index i of the list is at
+ *  position size - 1 - i of the arrays, so adding to the beginning of the list
+ *  appends to the arrays. The CharData objects returned by getFirst(), get(),
+ *  toArray() and listIterator() are copies (see CharList).
+ *  <p>
+ *  Most windows have a single successor (82% of those of length 7 on
+ *  originofspecies.txt), so the arrays start with room for one element and
+ *  grow by half. The probability arrays are only allocated by
+ *  calculateProbabilities(), to the size of the list, which is also when the
+ *  other arrays are trimmed to it; the lists of one element share the same
+ *  probabilities, 1. So a frozen list of one element takes the same heap as a
+ *  List of one element, and longer lists take less. */
+public class ArrayCharList implements CharList {
+
+    // The initial number of elements the arrays can hold.
+    private static final int INITIAL_CAPACITY = 1;
+
+    // The probabilities of the element of a list of one element, once computed,
+    // shared by all such lists and never written.
+    private static final double[] ONE = {1.0};
+
+    // The characters, counts, probabilities and cumulative probabilities of
+    // the elements, in reverse list order. The probabilities are null until
+    // calculateProbabilities() is first called, and 0 for elements added since.
+    private char[] chars;
+    private int[] counts;
+    private double[] p;
+    private double[] cp;
+
+    // The number of elements in this list.
+    private int size;
+
+    // How this list orders its elements as they are updated.
+    private final ListOrder order;
+
+    /** Constructs an empty list. */
+    public ArrayCharList() {
+        this(ListOrder.INSERTION);
+    }
+
+    /** Constructs an empty list that orders its elements as they are updated
+     *  by the given policy. */
+    public ArrayCharList(ListOrder order) {
+        this.order = order;
+        chars = new char[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+    }
+
+    /** Returns how this list orders its elements as they are updated. */
+    public ListOrder getOrder() {
+        return order;
+    }
+
+    /** Returns the number of elements in this list. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns (a copy of) the first element in this list. */
+    public CharData getFirst() {
+        return get(0);
+    }
+
+    /** Adds a CharData object with the given character to the beginning of this list. */
+    public void addFirst(char chr) {
+        insert(size, chr, 1);
+    }
+
+    /** Returns the index of the first element of this list that has the given
+     *  character, or -1 if there is no such element in this list. */
+    public int indexOf(char chr) {
+        int i = find(chr);
+        return i == -1 ? -1 : size - 1 - i;
+    }
+
+    /** If the given character is in this list, increments its counter.
+     *  Otherwise, adds it with a count of 1, as List.update does. */
+    public void update(char chr) {
+        update(chr, 1);
+    }
+
+    /** If the given character is in this list, adds the given count to its
+     *  counter. Otherwise, adds it with the given count, as List.update does. */
+    public void update(char chr, int count) {
+        int i = find(chr);
+        if (i != -1) {
+            counts[i] += count;
+            if (order == ListOrder.MOVE_TO_FRONT) {
+                move(i, size - 1);
+            } else if (order == ListOrder.BY_COUNT) {
+                int j = i;
+                while (j + 1 < size && counts[j + 1] < counts[i]) j++;
+                move(i, j);
+            }
+            return;
+        }
+        int at = size;
+        if (order == ListOrder.BY_COUNT) {
+            // after the elements of at least this count: before them in the arrays
+            at = 0;
+            while (at < size && counts[at] < count) at++;
+        }
+        insert(at, chr, count);
+    }
+
+    /** If the given character is in this list, removes it and returns true.
+     *  Otherwise, returns false. */
+    public boolean remove(char chr) {
+        int i = find(chr);
+        if (i == -1) return false;
+        int tail = size - 1 - i;
+        System.arraycopy(chars, i + 1, chars, i, tail);
+        System.arraycopy(counts, i + 1, counts, i, tail);
+        if (p != null) {
+            System.arraycopy(p, i + 1, p, i, tail);
+            System.arraycopy(cp, i + 1, cp, i, tail);
+        }
+        size--;
+        return true;
+    }
+
+    /** Returns (a copy of) the element at the given index in this list. If the
+     *  index is negative or not less than the size of this list, throws an
+     *  IndexOutOfBoundsException. */
+    public CharData get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException();
+        return charData(size - 1 - index);
+    }
+
+    /** Returns an array of (copies of) the elements of this list. */
+    public CharData[] toArray() {
+        CharData[] arr = new CharData[size];
+        for (int index = 0; index < size; index++) arr[index] = charData(size - 1 - index);
+        return arr;
+    }
+
+    /** Returns an iterator over (copies of) the elements of this list, starting
+     *  at the given index, or null if this list is empty. */
+    public ListIterator listIterator(int index) {
+        if (size == 0) return null;
+        // links copies of the elements from the given index on
+        Node first = null;
+        for (int i = 0; i < size - index; i++) first = new Node(charData(i), first);
+        return new ListIterator(first);
+    }
+
+    /** Computes and sets the probabilities of all the characters in this list,
+     *  with the arithmetic of List.calculateProbabilities. */
+    public void calculateProbabilities() {
+        if (size == 0) return;
+        if (chars.length > size) {
+            chars = Arrays.copyOf(chars, size);
+            counts = Arrays.copyOf(counts, size);
+        }
+        if (size == 1 && counts[0] > 0) {
+            // count / count, as List computes it
+            p = ONE;
+            cp = ONE;
+            return;
+        }
+        if (p == null || p == ONE || p.length != size) {
+            p = new double[size];
+            cp = new double[size];
+        }
+        double num = 0;
+        for (int i = size - 1; i >= 0; i--) num += counts[i];
+        double current = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            p[i] = counts[i] / num;
+            cp[i] = current + p[i];
+            current = cp[i];
+        }
+    }
+
+    /** Returns the first character in this list whose cumulative probability
+     *  is at least the given number. If rounding leaves the last cumulative
+     *  probability below it, returns the last character; if the list is
+     *  empty, returns 0. */
+    public char select(double close) {
+        for (int i = size - 1; i >= 0 && cp != null; i--) {
+            if (cp[i] >= close) return chars[i];
+        }
+        return size == 0 ? 0 : chars[0];
+    }
+
+    /** Textual representation of this list, as List.toString. */
+    public String toString() {
+        StringBuilder str = new StringBuilder("(");
+        for (int i = size - 1; i >= 0; i--) {
+            str.append('(').append(chars[i]).append(' ').append(counts[i]).append(' ')
+                    .append(p == null ? 0.0 : p[i]).append(' ').append(cp == null ? 0.0 : cp[i]).append(')');
+            if (i > 0) str.append(' ');
+        }
+        return str.append(')').toString();
+    }
+
+    // Returns the position in the arrays of the given character, or -1. Scans
+    // in list order.
+    private int find(char chr) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (chars[i] == chr) return i;
+        }
+        return -1;
+    }
+
+    // Returns a CharData copy of the element at the given position in the arrays.
+    private CharData charData(int i) {
+        CharData cd = new CharData(chars[i]);
+        cd.count = counts[i];
+        if (p != null) {
+            cd.p = p[i];
+            cd.cp = cp[i];
+        }
+        return cd;
+    }
+
+    // Inserts an element at the given position in the arrays.
+    private void insert(int at, char chr, int count) {
+        if (size == chars.length) {
+            int capacity = size + (size >> 1) + 1;
+            chars = Arrays.copyOf(chars, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        int tail = size - at;
+        System.arraycopy(chars, at, chars, at + 1, tail);
+        System.arraycopy(counts, at, counts, at + 1, tail);
+        chars[at] = chr;
+        counts[at] = count;
+        if (p != null) {
+            // a list that had one element may share ONE, which is never written
+            if (size == p.length || p == ONE) {
+                p = Arrays.copyOf(p, chars.length);
+                cp = Arrays.copyOf(cp, chars.length);
+            }
+            System.arraycopy(p, at, p, at + 1, tail);
+            System.arraycopy(cp, at, cp, at + 1, tail);
+            p[at] = 0;
+            cp[at] = 0;
+        }
+        size++;
+    }
+
+    // Moves the element at position from of the arrays to position to (at or
+    // after from), shifting the elements between them down by one.
+    private void move(int from, int to) {
+        if (from == to) return;
+        char chr = chars[from];
+        int count = counts[from];
+        int between = to - from;
+        System.arraycopy(chars, from + 1, chars, from, between);
+        System.arraycopy(counts, from + 1, counts, from, between);
+        chars[to] = chr;
+        counts[to] = count;
+        if (p != null) {
+            double prob = p[from];
+            double cumulative = cp[from];
+            System.arraycopy(p, from + 1, p, from, between);
+            System.arraycopy(cp, from + 1, cp, from, between);
+            p[to] = prob;
+            cp[to] = cumulative;
+        }
+    }
+}
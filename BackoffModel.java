@@ -0,0 +1,176 @@
+import java.util.BitSet;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+/** A language model of all the window lengths (orders) 1 to maxOrder at once,
+ *  which backs off to shorter windows when generating.
+ *  <p>
+ *  All orders are trained in a single pass over the corpus and kept in a single
+ *  ContextMap of windows of length maxOrder: a window of order k is stored
+ *  padded on the left with maxOrder - k PAD characters. The counts of order k
+ *  are exactly those of a LanguageModel of window length k trained on the same
+ *  corpus.
+ *  <p>
+ *  When generating, the next character is drawn from the longest window ending
+ *  the text that was seen in training, so generation only stops if even the
+ *  last character was never seen followed by another one. */
+public class BackoffModel {
+
+    // Pads windows shorter than maxOrder. A Unicode noncharacter, which does
+    // not occur in texts.
+    static final char PAD = '\uFFFF';
+
+    // The number of corpus characters read at a time by train().
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The longest window length of this model.
+    private final int maxOrder;
+
+    // Maps the padded windows of all orders to lists of character data objects.
+    private final ContextMap contexts;
+
+    // The random number generator used by this model.
+    private final RandomGenerator randomGenerator;
+
+    // The ids of the windows whose counts changed since their probabilities
+    // were last computed.
+    private final BitSet dirty;
+
+    /** Constructs a model of window lengths 1 to maxOrder, with the given seed. */
+    public BackoffModel(int maxOrder, int seed) {
+        this(maxOrder, new Random(seed));
+    }
+
+    /** Constructs a model of window lengths 1 to maxOrder, which draws from the
+     *  given random number generator. */
+    public BackoffModel(int maxOrder, RandomGenerator randomGenerator) {
+        if (maxOrder < 1) throw new IllegalArgumentException("maxOrder must be at least 1: " + maxOrder);
+        this.maxOrder = maxOrder;
+        this.randomGenerator = randomGenerator;
+        contexts = new ContextMap(maxOrder);
+        dirty = new BitSet();
+    }
+
+    /** Returns the longest window length of this model. */
+    public int getMaxOrder() {
+        return maxOrder;
+    }
+
+    /** Returns the number of windows of all orders in this model. */
+    public int size() {
+        return contexts.size();
+    }
+
+    /** Trains all orders of this model on the text in the given file. */
+    public void train(String fileName) {
+        In input = new In(fileName);
+        try {
+            train(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Trains all orders of this model on the text read from the given input,
+     *  in a single pass, a buffer at a time. */
+    public void train(In input) {
+        char[] buf = new char[maxOrder + BUFFER_SIZE];
+        char[] window = new char[maxOrder];
+        int len = 0;
+        // buf[p] is the next character to count as a successor
+        int p = 0;
+        int n;
+        while ((n = input.read(buf, len, buf.length - len)) != -1) {
+            len += n;
+            for (; p < len; p++) {
+                // builds the padded windows ending before p, from order 1 up
+                int orders = Math.min(maxOrder, p);
+                for (int i = 0; i < maxOrder; i++) window[i] = PAD;
+                for (int k = 1; k <= orders; k++) {
+                    window[maxOrder - k] = buf[p - k];
+                    int id = contexts.add(contexts.key(window, 0), window, 0);
+                    contexts.get(id).update(buf[p]);
+                    dirty.set(id);
+                }
+            }
+            int keep = Math.min(len, maxOrder);
+            System.arraycopy(buf, len - keep, buf, 0, keep);
+            len = keep;
+            p = keep;
+        }
+    }
+
+    /** Computes the probabilities of all the lists whose counts changed since
+     *  the last call. Called lazily by generate(). */
+    public void freeze() {
+        for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+            contexts.get(id).calculateProbabilities();
+        }
+        dirty.clear();
+    }
+
+    /** Returns the order of the longest window ending the given text that was
+     *  seen in training, or 0 if there is none. */
+    public int order(String text) {
+        freeze();
+        char[] window = lastChars(text);
+        char[] padded = new char[maxOrder];
+        for (int k = Math.min(maxOrder, text.length()); k >= 1; k--) {
+            if (find(window, k, padded) != null) return k;
+        }
+        return 0;
+    }
+
+    // Returns the list of the window of order k that ends the given window (the
+    // last maxOrder characters of a text, right-aligned), or null if it was not
+    // seen in training. Pads the window into the given array to look it up.
+    private CharList find(char[] window, int k, char[] padded) {
+        for (int i = 0; i < maxOrder - k; i++) padded[i] = PAD;
+        System.arraycopy(window, maxOrder - k, padded, maxOrder - k, k);
+        return contexts.get(padded, 0);
+    }
+
+    /** Generates a random text: each character is drawn from the successors of
+     *  the longest window ending the text so far that was seen in training.
+     *  Generation stops early only if no window ending the text was seen, not
+     *  even its last character. While windows of length maxOrder are found, the
+     *  text is the one a LanguageModel of that window length with the same
+     *  generator would produce. */
+    public String generate(String initialText, int textLength) {
+        freeze();
+        StringBuilder text = new StringBuilder(initialText.length() + textLength);
+        text.append(initialText);
+        char[] window = lastChars(initialText);
+        char[] padded = new char[maxOrder];
+        int available = Math.min(maxOrder, initialText.length());
+        for (int i = 0; i < textLength; i++) {
+            CharList probs = null;
+            for (int k = available; k >= 1 && probs == null; k--) {
+                probs = find(window, k, padded);
+            }
+            if (probs == null) break;
+            char chr = getRandomChar(probs);
+            text.append(chr);
+            System.arraycopy(window, 1, window, 0, maxOrder - 1);
+            window[maxOrder - 1] = chr;
+            if (available < maxOrder) available++;
+        }
+        return text.toString();
+    }
+
+    // Returns the last maxOrder characters of the given text, right-aligned
+    // and padded on the left if the text is shorter.
+    private char[] lastChars(String text) {
+        char[] window = new char[maxOrder];
+        int k = Math.min(maxOrder, text.length());
+        for (int i = 0; i < maxOrder - k; i++) window[i] = PAD;
+        text.getChars(text.length() - k, text.length(), window, maxOrder - k);
+        return window;
+    }
+
+    // Returns a random character from the given probabilities list, as
+    // LanguageModel.getRandomChar does.
+    private char getRandomChar(CharList probs) {
+        return probs.select(randomGenerator.nextDouble());
+    }
+}
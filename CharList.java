@@ -0,0 +1,64 @@
+/** The API of a list of character data objects: the successors of a window,
+ *  with their counts and probabilities. Implemented by List, a linked list of
+ *  CharData objects; by ArrayCharList and DenseCharList, which keep the same
+ *  data in primitive arrays; and by TieredCharList, which moves between
+ *  representations as it grows. All keep their elements in the same order, so
+ *  a model generates the same texts with any of them.
+ *  <p>
+ *  The CharData objects returned by getFirst(), get(), toArray() and
+ *  listIterator() may be copies of the elements: only List returns the
+ *  elements themselves. Callers that hold a CharList change it through
+ *  update(), remove() and calculateProbabilities(), never by setting the
+ *  fields of a returned CharData. */
+public interface CharList {
+
+    /** Returns the number of elements in this list. */
+    int getSize();
+
+    /** Returns (a copy of) the first element in this list. */
+    CharData getFirst();
+
+    /** Adds a CharData object with the given character to the beginning of this list. */
+    void addFirst(char chr);
+
+    /** Returns the index of the first CharData object in this list that has the
+     *  given character, or -1 if there is no such object in this list. */
+    int indexOf(char chr);
+
+    /** If the given character is in this list, increments its counter.
+     *  Otherwise, adds it with a count of 1 (see ListOrder for where). */
+    void update(char chr);
+
+    /** If the given character is in this list, adds the given count to its
+     *  counter. Otherwise, adds it with the given count (see ListOrder for where). */
+    void update(char chr, int count);
+
+    /** If the given character is in this list, removes it and returns true.
+     *  Otherwise, returns false. */
+    boolean remove(char chr);
+
+    /** Returns (a copy of) the CharData object at the given index in this list.
+     *  If the index is negative or not less than the size of this list, throws
+     *  an IndexOutOfBoundsException. */
+    CharData get(int index);
+
+    /** Returns an array of (copies of) the CharData objects in this list. */
+    CharData[] toArray();
+
+    /** Returns an iterator over (copies of) the elements in this list, starting
+     *  at the given index, or null if this list is empty. */
+    ListIterator listIterator(int index);
+
+    /** Returns how this list orders its elements as they are updated. */
+    ListOrder getOrder();
+
+    /** Computes and sets the probabilities (p and cp fields) of all the
+     *  characters in this list, in list order. */
+    void calculateProbabilities();
+
+    /** Returns the first character in this list whose cumulative probability
+     *  is at least the given number. If rounding leaves the last cumulative
+     *  probability below it, returns the last character; if the list is
+     *  empty, returns 0. */
+    char select(double close);
+}
@@ -0,0 +1,235 @@
+import java.util.Arrays;
+
+/** A map from windows (strings of a fixed length) to lists of character data
+ *  objects. Replaces a HashMap<String, List>: windows are read directly from
+ *  char arrays, so looking a window up does not create a String for it.
+ *  <p>
+ *  The map is an open-addressing hash table with linear probing, keyed by
+ *  WindowKeys. Short windows are packed exactly into a long key; longer windows
+ *  are keyed by a hash, and a hit is verified against the copy of the window
+ *  kept in the map. Keys can be rolled along a text one character at a time.
+ *  <p>
+ *  The windows in the map are numbered 0, 1, 2, ... in the order in which they
+ *  were added; these ids are stable and never reused, until removeEmpty()
+ *  renumbers them. */
+public class ContextMap {
+
+    // The initial number of slots in the table (a power of 2).
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The length of the windows in this map.
+    private final int windowLength;
+
+    // Computes the keys of the windows.
+    private final WindowKeys windowKeys;
+
+    // The key in each slot of the table.
+    private long[] keys;
+
+    // The id + 1 of the window in each slot of the table, or 0 if the slot is empty.
+    private int[] slots;
+
+    // The characters of all windows, window id starting at index id * windowLength.
+    private char[] windows;
+
+    // The list of each window, by id.
+    private CharList[] lists;
+
+    // The number of windows in this map.
+    private int size;
+
+    // How the lists of this map order their elements, and how they are stored.
+    private final ListOrder listOrder;
+    private final ListStorage listStorage;
+
+    // The ids of the characters of TIERED lists, or null for other storages.
+    private final Alphabet alphabet;
+
+    /** Constructs an empty map of windows of the given length. */
+    public ContextMap(int windowLength) {
+        this(windowLength, ListOrder.INSERTION);
+    }
+
+    /** Constructs an empty map of windows of the given length, whose lists
+     *  order their elements by the given policy. */
+    public ContextMap(int windowLength, ListOrder listOrder) {
+        this(windowLength, listOrder, ListStorage.LINKED);
+    }
+
+    /** Constructs an empty map of windows of the given length, whose lists
+     *  order their elements by the given policy and have the given storage. */
+    public ContextMap(int windowLength, ListOrder listOrder, ListStorage listStorage) {
+        this.windowLength = windowLength;
+        this.listOrder = listOrder;
+        this.listStorage = listStorage;
+        alphabet = listStorage == ListStorage.TIERED ? new Alphabet() : null;
+        windowKeys = new WindowKeys(windowLength);
+        keys = new long[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY];
+        windows = new char[INITIAL_CAPACITY / 2 * windowLength];
+        lists = new CharList[INITIAL_CAPACITY / 2];
+        size = 0;
+    }
+
+    /** Returns the number of windows in this map. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the length of the windows in this map. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns how the lists of this map order their elements. */
+    public ListOrder getListOrder() {
+        return listOrder;
+    }
+
+    /** Returns how the lists of this map are stored. */
+    public ListStorage getListStorage() {
+        return listStorage;
+    }
+
+    /** Returns the number of windows whose lists are TieredCharLists in the
+     *  given tier (0 for storages other than TIERED). */
+    public int tierCount(SuccessorTier tier) {
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            if (lists[id] instanceof TieredCharList && ((TieredCharList) lists[id]).getTier() == tier) count++;
+        }
+        return count;
+    }
+
+    /** Returns the key of the window that starts at index off of the given array. */
+    public long key(char[] buf, int off) {
+        return windowKeys.key(buf, off);
+    }
+
+    /** Given the key of a window, returns the key of the window that follows it
+     *  in a text: the window without its first character (out), followed by in. */
+    public long roll(long key, char out, char in) {
+        return windowKeys.roll(key, out, in);
+    }
+
+    /** Returns the id of the window that starts at index off of the given array,
+     *  whose key is the given key, or -1 if the window is not in this map. */
+    public int find(long key, char[] buf, int off) {
+        int mask = slots.length - 1;
+        for (int slot = WindowKeys.slot(key, mask); slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && matches(slots[slot] - 1, buf, off)) return slots[slot] - 1;
+        }
+        return -1;
+    }
+
+    /** Returns the id of the window that starts at index off of the given array,
+     *  whose key is the given key. If the window is not in this map, adds it,
+     *  with an empty list, and returns its new id. */
+    public int add(long key, char[] buf, int off) {
+        int mask = slots.length - 1;
+        int slot = WindowKeys.slot(key, mask);
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && matches(slots[slot] - 1, buf, off)) return slots[slot] - 1;
+        }
+        int id = size++;
+        if (id == lists.length) {
+            lists = Arrays.copyOf(lists, 2 * id);
+            windows = Arrays.copyOf(windows, 2 * id * windowLength);
+        }
+        System.arraycopy(buf, off, windows, id * windowLength, windowLength);
+        lists[id] = listStorage.newList(listOrder, alphabet);
+        keys[slot] = key;
+        slots[slot] = id + 1;
+        if (2 * size > slots.length) rehash(2 * slots.length);
+        return id;
+    }
+
+    /** Returns the id of the given window of another map (of the same window
+     *  length) in this map. If the window is not in this map, adds it, with an
+     *  empty list, and returns its new id. */
+    public int add(ContextMap other, int id) {
+        return add(key(other.windows, id * windowLength), other.windows, id * windowLength);
+    }
+
+    /** Returns the list of the window with the given id. */
+    public CharList get(int id) {
+        return lists[id];
+    }
+
+    /** Replaces the list of the window with the given id by a new empty list,
+     *  and returns the new list. */
+    public CharList reset(int id) {
+        lists[id] = listStorage.newList(listOrder, alphabet);
+        return lists[id];
+    }
+
+    /** Returns the list of the window that starts at index off of the given
+     *  array, or null if the window is not in this map. */
+    public CharList get(char[] buf, int off) {
+        int id = find(key(buf, off), buf, off);
+        return id == -1 ? null : lists[id];
+    }
+
+    /** Returns the window with the given id, as a string. */
+    public String window(int id) {
+        return new String(windows, id * windowLength, windowLength);
+    }
+
+    /** Copies the window with the given id into dst, starting at index off. */
+    public void window(int id, char[] dst, int off) {
+        System.arraycopy(windows, id * windowLength, dst, off, windowLength);
+    }
+
+    /** Removes the windows whose lists are empty, and renumbers the others
+     *  0, 1, 2, ... in the same order. */
+    public void removeEmpty() {
+        int kept = 0;
+        for (int id = 0; id < size; id++) {
+            if (lists[id].getSize() == 0) continue;
+            lists[kept] = lists[id];
+            System.arraycopy(windows, id * windowLength, windows, kept * windowLength, windowLength);
+            kept++;
+        }
+        size = kept;
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < 2 * size) capacity *= 2;
+        lists = Arrays.copyOf(lists, capacity / 2);
+        windows = Arrays.copyOf(windows, capacity / 2 * windowLength);
+        keys = new long[capacity];
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            long key = key(windows, id * windowLength);
+            int slot = WindowKeys.slot(key, mask);
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            slots[slot] = id + 1;
+        }
+    }
+
+    // Checks if the window with the given id equals the window starting at index off of buf.
+    private boolean matches(int id, char[] buf, int off) {
+        if (windowKeys.isExact()) return true;
+        int start = id * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (windows[start + i] != buf[off + i]) return false;
+        }
+        return true;
+    }
+
+    // Moves all the windows to a new table with the given number of slots.
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[capacity];
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0) continue;
+            int slot = WindowKeys.slot(oldKeys[i], mask);
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            slots[slot] = oldSlots[i];
+        }
+    }
+}
@@ -0,0 +1,344 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** A store of windows (strings of a fixed length) and their lists of character
+ *  data objects, kept as a character trie. Windows that share a prefix share
+ *  the nodes of that prefix, so overlapping windows such as "the" and "thi" are
+ *  stored once up to where they differ. The list of a window lives at its leaf.
+ *  Unlike a hash map, the trie answers prefix queries: which windows, and how
+ *  many, start with a given string.
+ *  <p>
+ *  The trie is path compressed: a chain of nodes with a single child is one
+ *  edge labeled by a run of characters, so a window costs a node for where it
+ *  branches off plus the characters that only it has. Nodes are kept in
+ *  parallel arrays, indexed by node id; node 0 is the root. The children of a
+ *  node form a linked list of siblings. Once a node has more than
+ *  DENSE_THRESHOLD children, it also gets a packed array of its children,
+ *  indexed by first character, so that finding a child of a wide node takes
+ *  constant time.
+ *  <p>
+ *  On originofspecies.txt, with the lists included, the heap per window is
+ *  about that of a HashMap with String keys and of a ContextMap at window
+ *  length 4, and drops below both as windows get longer: 168 bytes against
+ *  199 and 194 at length 7, 151 against 188 and 176 at length 16 (see
+ *  LanguageModelBenchmark trie). */
+public class ContextTrie {
+
+    // The number of children above which a node gets a packed child array.
+    private static final int DENSE_THRESHOLD = 8;
+
+    // The number of corpus characters read at a time by train().
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The length of the windows in this trie.
+    private final int windowLength;
+
+    // The characters of all edge labels.
+    private char[] labels;
+    private int labelsSize;
+
+    // The label of the edge into each node: its start in labels, and its length.
+    private int[] edgeStart;
+    private int[] edgeLength;
+
+    // The first child of each inner node; for a leaf, the index of its list.
+    private int[] firstChild;
+
+    // The next sibling of each node, or -1.
+    private int[] nextSibling;
+
+    // The start of the packed child array of each node in the dense array, or -1.
+    private int[] denseStart;
+
+    // The packed child arrays of all dense nodes. Each one starts with its
+    // smallest character and the number of characters it covers, followed by
+    // child id + 1 for each of these characters, or 0 for no child.
+    private int[] dense;
+    private int denseSize;
+
+    // The number of nodes.
+    private int nodes;
+
+    // The list of each window, by leaf index.
+    private List[] lists;
+
+    // The number of windows in this trie.
+    private int size;
+
+    /** Constructs an empty trie of windows of the given length. */
+    public ContextTrie(int windowLength) {
+        this.windowLength = windowLength;
+        labels = new char[64];
+        edgeStart = new int[16];
+        edgeLength = new int[16];
+        firstChild = new int[16];
+        nextSibling = new int[16];
+        denseStart = new int[16];
+        dense = new int[64];
+        lists = new List[16];
+        newNode(0, 0);
+        firstChild[0] = -1;
+    }
+
+    /** Returns the number of windows in this trie. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of nodes in this trie, including the root. */
+    public int nodeCount() {
+        return nodes;
+    }
+
+    /** Trains on the text in the given file: adds every window of the text
+     *  and counts the character that follows it, as LanguageModel.train does. */
+    public void train(String fileName) {
+        In input = new In(fileName);
+        try {
+            char[] buf = new char[windowLength + BUFFER_SIZE];
+            int len = 0;
+            int n;
+            while ((n = input.read(buf, len, buf.length - len)) != -1) {
+                len += n;
+                int end = len - windowLength;
+                if (end <= 0) continue;
+                for (int i = 0; i < end; i++) {
+                    add(buf, i).update(buf[i + windowLength]);
+                }
+                System.arraycopy(buf, end, buf, 0, windowLength);
+                len = windowLength;
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Returns the list of the window that starts at index off of the given
+     *  array. If the window is not in this trie, adds it with an empty list. */
+    public List add(char[] buf, int off) {
+        if (windowLength == 0) {
+            if (size == 0) newList();
+            return lists[0];
+        }
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            int child = child(node, buf[off + depth]);
+            if (child == -1) {
+                addChild(node, newLeaf(buf, off + depth, windowLength - depth));
+                return lists[size - 1];
+            }
+            int start = edgeStart[child];
+            int length = edgeLength[child];
+            int i = 1;
+            while (i < length && labels[start + i] == buf[off + depth + i]) i++;
+            depth += i;
+            if (i < length) {
+                // the window leaves the edge: splits it where they differ
+                split(child, i);
+                addChild(child, newLeaf(buf, off + depth, windowLength - depth));
+                return lists[size - 1];
+            }
+            if (depth == windowLength) return lists[firstChild[child]];
+            node = child;
+        }
+    }
+
+    /** Returns the list of the window that starts at index off of the given
+     *  array, or null if the window is not in this trie. */
+    public List get(char[] buf, int off) {
+        if (windowLength == 0) return size == 0 ? null : lists[0];
+        int node = 0;
+        int depth = 0;
+        while (depth < windowLength) {
+            node = child(node, buf[off + depth]);
+            if (node == -1) return null;
+            int start = edgeStart[node];
+            for (int i = 1; i < edgeLength[node]; i++) {
+                if (labels[start + i] != buf[off + depth + i]) return null;
+            }
+            depth += edgeLength[node];
+        }
+        return lists[firstChild[node]];
+    }
+
+    /** Returns the list of the given window, or null if it is not in this trie. */
+    public List get(String window) {
+        return get(window.toCharArray(), 0);
+    }
+
+    /** Returns the number of windows in this trie that start with the given prefix. */
+    public int countWithPrefix(String prefix) {
+        int[] found = find(prefix);
+        if (found == null) return 0;
+        return countLeaves(found[0], found[1]);
+    }
+
+    /** Returns the windows in this trie that start with the given prefix. */
+    public String[] windowsWithPrefix(String prefix) {
+        ArrayList<String> windows = new ArrayList<String>();
+        int[] found = find(prefix);
+        if (found != null) {
+            char[] window = new char[windowLength];
+            prefix.getChars(0, prefix.length(), window, 0);
+            // completes the edge the prefix ends in
+            int node = found[0];
+            int depth = found[1];
+            int length = edgeLength[node];
+            System.arraycopy(labels, edgeStart[node], window, depth - length, length);
+            collect(node, depth, window, windows);
+        }
+        return windows.toArray(new String[0]);
+    }
+
+    // Returns the node whose edge the given prefix ends in, and the depth at the
+    // end of that edge, or null if no window starts with the prefix.
+    private int[] find(String prefix) {
+        if (prefix.length() > windowLength) return null;
+        int node = 0;
+        int depth = 0;
+        while (depth < prefix.length()) {
+            node = child(node, prefix.charAt(depth));
+            if (node == -1) return null;
+            int start = edgeStart[node];
+            for (int i = 1; i < edgeLength[node] && depth + i < prefix.length(); i++) {
+                if (labels[start + i] != prefix.charAt(depth + i)) return null;
+            }
+            depth += edgeLength[node];
+        }
+        if (node == 0 && size == 0) return null;
+        return new int[] {node, depth};
+    }
+
+    // Returns the number of leaves under the given node, whose edge ends at the given depth.
+    private int countLeaves(int node, int depth) {
+        if (depth == windowLength) return 1;
+        int count = 0;
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            count += countLeaves(child, depth + edgeLength[child]);
+        }
+        return count;
+    }
+
+    // Adds the windows under the given node to the given list. The first depth
+    // characters of window hold the path to the end of the node's edge.
+    private void collect(int node, int depth, char[] window, ArrayList<String> windows) {
+        if (depth == windowLength) {
+            windows.add(new String(window));
+            return;
+        }
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            System.arraycopy(labels, edgeStart[child], window, depth, edgeLength[child]);
+            collect(child, depth + edgeLength[child], window, windows);
+        }
+    }
+
+    // Returns the child of the given node whose edge starts with the given character, or -1.
+    private int child(int node, char c) {
+        int start = denseStart[node];
+        if (start != -1) {
+            int i = c - dense[start];
+            if (i < 0 || i >= dense[start + 1]) return -1;
+            return dense[start + 2 + i] - 1;
+        }
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            if (labels[edgeStart[child]] == c) return child;
+        }
+        return -1;
+    }
+
+    // Adds the given new node as a child of the given node.
+    private void addChild(int node, int child) {
+        nextSibling[child] = firstChild[node];
+        firstChild[node] = child;
+        int start = denseStart[node];
+        if (start != -1) {
+            int i = labels[edgeStart[child]] - dense[start];
+            if (i >= 0 && i < dense[start + 1]) {
+                dense[start + 2 + i] = child + 1;
+            } else {
+                pack(node);
+            }
+            return;
+        }
+        int count = 0;
+        for (int c = firstChild[node]; c != -1; c = nextSibling[c]) count++;
+        if (count > DENSE_THRESHOLD) pack(node);
+    }
+
+    // Splits the edge into the given node after its first length characters:
+    // the node keeps these, and a new node, its only child, takes the rest of
+    // the edge and the node's children. The node keeps its place among its
+    // siblings, so its parent needs no update.
+    private void split(int node, int length) {
+        int tail = newNode(edgeStart[node] + length, edgeLength[node] - length);
+        firstChild[tail] = firstChild[node];
+        denseStart[tail] = denseStart[node];
+        edgeLength[node] = length;
+        firstChild[node] = tail;
+        denseStart[node] = -1;
+    }
+
+    // Gives the given node a packed child array covering all its children. A
+    // node whose children outgrow its array gets a new one; the old one is left
+    // unused.
+    private void pack(int node) {
+        char low = Character.MAX_VALUE;
+        char high = 0;
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            char c = labels[edgeStart[child]];
+            if (c < low) low = c;
+            if (c > high) high = c;
+        }
+        int span = high - low + 1;
+        if (denseSize + 2 + span > dense.length) {
+            dense = Arrays.copyOf(dense, Math.max(2 * dense.length, denseSize + 2 + span));
+        }
+        int start = denseSize;
+        dense[start] = low;
+        dense[start + 1] = span;
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            dense[start + 2 + labels[edgeStart[child]] - low] = child + 1;
+        }
+        denseStart[node] = start;
+        denseSize += 2 + span;
+    }
+
+    // Adds a leaf whose edge is labeled by the given characters, with a new
+    // empty list, and returns its id.
+    private int newLeaf(char[] buf, int off, int length) {
+        if (labelsSize + length > labels.length) {
+            labels = Arrays.copyOf(labels, Math.max(labels.length + (labels.length >> 1), labelsSize + length));
+        }
+        System.arraycopy(buf, off, labels, labelsSize, length);
+        int leaf = newNode(labelsSize, length);
+        labelsSize += length;
+        firstChild[leaf] = size;
+        newList();
+        return leaf;
+    }
+
+    // Adds a new empty list at the next leaf index.
+    private void newList() {
+        if (size == lists.length) lists = Arrays.copyOf(lists, size + (size >> 1));
+        lists[size++] = new List();
+    }
+
+    // Adds a node whose edge is labeled by the given range of labels, with no
+    // children, and returns its id.
+    private int newNode(int start, int length) {
+        if (nodes == edgeStart.length) {
+            int capacity = nodes + (nodes >> 1);
+            edgeStart = Arrays.copyOf(edgeStart, capacity);
+            edgeLength = Arrays.copyOf(edgeLength, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            denseStart = Arrays.copyOf(denseStart, capacity);
+        }
+        edgeStart[nodes] = start;
+        edgeLength[nodes] = length;
+        nextSibling[nodes] = -1;
+        denseStart[nodes] = -1;
+        return nodes++;
+    }
+}
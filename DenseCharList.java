@@ -0,0 +1,312 @@
+import java.util.Arrays;
+
+/** A list of character data objects for windows with many successors. The
+ *  elements are kept in parallel arrays, in reverse list order as in
+ *  ArrayCharList, and a table indexed by the ids of an Alphabet gives the
+ *  position of each character, so update() and indexOf() do not scan. Once
+ *  the probabilities are computed, the cumulative probabilities increase along
+ *  the list, and select() finds its character by a binary search; it returns
+ *  the character a scan would. Has the API and the order of List. The CharData
+ *  objects returned by getFirst(), get(), toArray() and listIterator() are
+ *  copies: changing them does not change the list. */
+public class DenseCharList implements CharList {
+
+    // The initial length of the arrays.
+    private static final int INITIAL_CAPACITY = 8;
+
+    // The ids of the characters, shared by the lists of a model.
+    private final Alphabet alphabet;
+
+    // The position + 1 in the arrays of each character id, or 0 if the
+    // character is not in this list.
+    private int[] positions;
+
+    // The characters, counts, probabilities and cumulative probabilities of
+    // the elements, in reverse list order.
+    private char[] chars;
+    private int[] counts;
+    private double[] p;
+    private double[] cp;
+
+    // The number of elements in this list.
+    private int size;
+
+    // Whether the cumulative probabilities are computed and not changed since,
+    // so that they increase along the list.
+    private boolean calculated;
+
+    // How this list orders its elements as they are updated.
+    private final ListOrder order;
+
+    /** Constructs an empty list of characters of the given alphabet, ordered
+     *  by the given policy. */
+    public DenseCharList(Alphabet alphabet, ListOrder order) {
+        this.alphabet = alphabet;
+        this.order = order;
+        positions = new int[Math.max(alphabet.size(), 1)];
+        chars = new char[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        p = new double[INITIAL_CAPACITY];
+        cp = new double[INITIAL_CAPACITY];
+    }
+
+    /** Constructs a list of characters of the given alphabet with the elements
+     *  of the given list (counts and probabilities included), in the same
+     *  order, ordered by its policy. */
+    public DenseCharList(Alphabet alphabet, CharList list) {
+        this(alphabet, list.getOrder());
+        CharData[] arr = list.toArray();
+        ensureCapacity(arr.length);
+        calculated = true;
+        for (int index = 0; index < arr.length; index++) {
+            int i = arr.length - 1 - index;
+            chars[i] = arr[index].chr;
+            counts[i] = arr[index].count;
+            p[i] = arr[index].p;
+            cp[i] = arr[index].cp;
+            if (index > 0 && cp[i] < cp[i + 1]) calculated = false;
+            setPosition(chars[i], i);
+        }
+        size = arr.length;
+    }
+
+    /** Returns how this list orders its elements as they are updated. */
+    public ListOrder getOrder() {
+        return order;
+    }
+
+    /** Returns the number of elements in this list. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns (a copy of) the first element in this list. */
+    public CharData getFirst() {
+        return get(0);
+    }
+
+    /** Adds a CharData object with the given character to the beginning of this list. */
+    public void addFirst(char chr) {
+        insert(size, chr, 1);
+    }
+
+    /** Returns the index of the first element of this list that has the given
+     *  character, or -1 if there is no such element in this list. */
+    public int indexOf(char chr) {
+        int i = find(chr);
+        return i == -1 ? -1 : size - 1 - i;
+    }
+
+    /** If the given character is in this list, increments its counter.
+     *  Otherwise, adds it with a count of 1, as List.update does. */
+    public void update(char chr) {
+        update(chr, 1);
+    }
+
+    /** If the given character is in this list, adds the given count to its
+     *  counter. Otherwise, adds it with the given count, as List.update does. */
+    public void update(char chr, int count) {
+        calculated = false;
+        int i = find(chr);
+        if (i != -1) {
+            counts[i] += count;
+            if (order == ListOrder.MOVE_TO_FRONT) {
+                move(i, size - 1);
+            } else if (order == ListOrder.BY_COUNT) {
+                int j = i;
+                while (j + 1 < size && counts[j + 1] < counts[i]) j++;
+                move(i, j);
+            }
+            return;
+        }
+        int at = size;
+        if (order == ListOrder.BY_COUNT) {
+            // after the elements of at least this count: before them in the arrays
+            at = 0;
+            while (at < size && counts[at] < count) at++;
+        }
+        insert(at, chr, count);
+    }
+
+    /** If the given character is in this list, removes it and returns true.
+     *  Otherwise, returns false. */
+    public boolean remove(char chr) {
+        int i = find(chr);
+        if (i == -1) return false;
+        calculated = false;
+        positions[alphabet.id(chr)] = 0;
+        int tail = size - 1 - i;
+        System.arraycopy(chars, i + 1, chars, i, tail);
+        System.arraycopy(counts, i + 1, counts, i, tail);
+        System.arraycopy(p, i + 1, p, i, tail);
+        System.arraycopy(cp, i + 1, cp, i, tail);
+        size--;
+        reindex(i, size);
+        // addFirst() may have added the character more than once
+        for (int j = i - 1; j >= 0; j--) {
+            if (chars[j] == chr) {
+                setPosition(chr, j);
+                break;
+            }
+        }
+        return true;
+    }
+
+    /** Returns (a copy of) the element at the given index in this list. If the
+     *  index is negative or not less than the size of this list, throws an
+     *  IndexOutOfBoundsException. */
+    public CharData get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException();
+        return charData(size - 1 - index);
+    }
+
+    /** Returns an array of (copies of) the elements of this list. */
+    public CharData[] toArray() {
+        CharData[] arr = new CharData[size];
+        for (int index = 0; index < size; index++) arr[index] = charData(size - 1 - index);
+        return arr;
+    }
+
+    /** Returns an iterator over (copies of) the elements of this list, starting
+     *  at the given index, or null if this list is empty. */
+    public ListIterator listIterator(int index) {
+        if (size == 0) return null;
+        // links copies of the elements from the given index on
+        Node first = null;
+        for (int i = 0; i < size - index; i++) first = new Node(charData(i), first);
+        return new ListIterator(first);
+    }
+
+    /** Computes and sets the probabilities of all the characters in this list,
+     *  with the arithmetic of List.calculateProbabilities. */
+    public void calculateProbabilities() {
+        if (size == 0) return;
+        double num = 0;
+        for (int i = size - 1; i >= 0; i--) num += counts[i];
+        double current = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            p[i] = counts[i] / num;
+            cp[i] = current + p[i];
+            current = cp[i];
+        }
+        calculated = true;
+    }
+
+    /** Returns the first character in this list whose cumulative probability
+     *  is at least the given number. If rounding leaves the last cumulative
+     *  probability below it, returns the last character; if the list is
+     *  empty, returns 0. */
+    public char select(double close) {
+        if (!calculated) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (cp[i] >= close) return chars[i];
+            }
+            return size == 0 ? 0 : chars[0];
+        }
+        // the least list index whose cumulative probability is at least close
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cp[size - 1 - mid] >= close) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if (size == 0) return 0;
+        return low == size ? chars[0] : chars[size - 1 - low];
+    }
+
+    /** Textual representation of this list, as List.toString. */
+    public String toString() {
+        StringBuilder str = new StringBuilder("(");
+        for (int i = size - 1; i >= 0; i--) {
+            str.append('(').append(chars[i]).append(' ').append(counts[i]).append(' ')
+                    .append(p[i]).append(' ').append(cp[i]).append(')');
+            if (i > 0) str.append(' ');
+        }
+        return str.append(')').toString();
+    }
+
+    // Returns the position in the arrays of the given character, or -1.
+    private int find(char chr) {
+        int id = alphabet.id(chr);
+        return id == -1 || id >= positions.length ? -1 : positions[id] - 1;
+    }
+
+    // Records that the given character is at the given position in the arrays,
+    // unless it is also at a later position (first in list order).
+    private void setPosition(char chr, int i) {
+        int id = alphabet.add(chr);
+        if (id >= positions.length) positions = Arrays.copyOf(positions, Math.max(2 * positions.length, id + 1));
+        if (positions[id] < i + 1) positions[id] = i + 1;
+    }
+
+    // Records the positions of the elements at positions [from, to) of the
+    // arrays. A character that is also at a position after to keeps that one.
+    private void reindex(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int id = alphabet.id(chars[i]);
+            int at = positions[id] - 1;
+            if (at < to || at >= size || chars[at] != chars[i]) positions[id] = i + 1;
+        }
+    }
+
+    // Returns a CharData copy of the element at the given position in the arrays.
+    private CharData charData(int i) {
+        CharData cd = new CharData(chars[i]);
+        cd.count = counts[i];
+        cd.p = p[i];
+        cd.cp = cp[i];
+        return cd;
+    }
+
+    // Makes the arrays long enough for the given number of elements.
+    private void ensureCapacity(int capacity) {
+        if (capacity <= chars.length) return;
+        capacity = Math.max(capacity, 2 * chars.length);
+        chars = Arrays.copyOf(chars, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        p = Arrays.copyOf(p, capacity);
+        cp = Arrays.copyOf(cp, capacity);
+    }
+
+    // Inserts an element at the given position in the arrays.
+    private void insert(int at, char chr, int count) {
+        calculated = false;
+        ensureCapacity(size + 1);
+        int tail = size - at;
+        System.arraycopy(chars, at, chars, at + 1, tail);
+        System.arraycopy(counts, at, counts, at + 1, tail);
+        System.arraycopy(p, at, p, at + 1, tail);
+        System.arraycopy(cp, at, cp, at + 1, tail);
+        chars[at] = chr;
+        counts[at] = count;
+        p[at] = 0;
+        cp[at] = 0;
+        size++;
+        reindex(at + 1, size);
+        setPosition(chr, at);
+    }
+
+    // Moves the element at position from of the arrays to position to (at or
+    // after from), shifting the elements between them down by one.
+    private void move(int from, int to) {
+        if (from == to) return;
+        char chr = chars[from];
+        int count = counts[from];
+        double prob = p[from];
+        double cumulative = cp[from];
+        int between = to - from;
+        System.arraycopy(chars, from + 1, chars, from, between);
+        System.arraycopy(counts, from + 1, counts, from, between);
+        System.arraycopy(p, from + 1, p, from, between);
+        System.arraycopy(cp, from + 1, cp, from, between);
+        chars[to] = chr;
+        counts[to] = count;
+        p[to] = prob;
+        cp[to] = cumulative;
+        reindex(from, to + 1);
+    }
+}
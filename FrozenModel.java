@@ -0,0 +1,679 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.random.RandomGenerator;
+
+/** A read-only, compact form of a trained language model, for generating texts.
+ *  <p>
+ *  Instead of a map of lists of CharData objects, the model is stored in a few
+ *  flat arrays (held as buffers), in compressed sparse row layout. The windows are numbered
+ *  0, 1, 2, ...; the successors of window id are at positions
+ *  [offsets[id], offsets[id + 1]) of the symbols array (the characters) and of
+ *  the cumulative array (the running sum of their counts), in the same order as
+ *  in the list of the window. Windows are found through an open-addressing table
+ *  of their WindowKeys, as in ContextMap.
+ *  <p>
+ *  Size: each window takes 4 bytes of offset, 2 * windowLength bytes of text and
+ *  12 bytes per table slot (with 2 to 4 slots per window), and each successor
+ *  takes 6 bytes. As measured by "java LanguageModelBenchmark memory", a
+ *  windowLength 7 model of originofspecies.txt (268875 windows) takes about
+ *  73 bytes per window here, against about 194 bytes per window as a trained
+ *  LanguageModel; the benchmark reports both corpora at several window lengths.
+ *  <p>
+ *  A model can be saved to a binary file and loaded back with load(), which maps
+ *  the file into memory and uses the mapped arrays in place. */
+public class FrozenModel {
+
+    // Identifies model files: "LMOD" in ASCII.
+    private static final int MAGIC = 0x4C4D4F44;
+
+    // The version of the model file format written by save().
+    private static final int VERSION = 1;
+
+    // The byte order of model files.
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The number of windows in this model.
+    private final int size;
+
+    // Computes the keys of the windows.
+    private final WindowKeys windowKeys;
+
+    // The key in each slot of the table.
+    private final LongBuffer keys;
+
+    // The id + 1 of the window in each slot of the table, or 0 if the slot is empty.
+    private final IntBuffer slots;
+
+    // The characters of all windows, window id starting at index id * windowLength.
+    private final CharBuffer windows;
+
+    // The successors of window id are at positions [offsets[id], offsets[id + 1]).
+    private final IntBuffer offsets;
+
+    // The successor characters.
+    private final CharBuffer symbols;
+
+    // The running sum of the successor counts of each window.
+    private final IntBuffer cumulative;
+
+    // The distinct successor characters, in increasing order.
+    private final CharBuffer alphabet;
+
+    // The way in which this model draws successors.
+    private final Sampling sampling;
+
+    // For alias sampling: the probability of keeping each successor rather than
+    // taking its alias, and the position of its alias. Null for other samplings.
+    private final DoubleBuffer aliasProbability;
+    private final IntBuffer alias;
+
+    // For compiled models: the id of the window that follows each successor (the
+    // window without its first character, followed by the successor), or -1 if
+    // that window is not in this model. Null for models that are not compiled.
+    private final IntBuffer next;
+
+    /** Constructs a frozen copy of the given language model, which draws
+     *  successors by scanning them, as the model itself does. The copy does not
+     *  change if the model is trained further. */
+    public FrozenModel(LanguageModel model) {
+        this(model, Sampling.SCAN, false);
+    }
+
+    /** Constructs a frozen copy of the given language model, which draws
+     *  successors in the given way. The copy does not change if the model is
+     *  trained further. */
+    public FrozenModel(LanguageModel model, Sampling sampling) {
+        this(model, sampling, false);
+    }
+
+    /** Constructs a frozen copy of the given language model, which draws
+     *  successors in the given way. If compiled is true, each successor also
+     *  stores the id of the window that follows it, so generating a text walks
+     *  from window to window without looking windows up; this takes 4 more
+     *  bytes per successor. The copy does not change if the model is trained
+     *  further. */
+    public FrozenModel(LanguageModel model, Sampling sampling, boolean compiled) {
+        ContextMap map = model.CharDataMap;
+        this.sampling = sampling;
+        windowLength = map.getWindowLength();
+        size = map.size();
+        windowKeys = new WindowKeys(windowLength);
+        int successors = 0;
+        for (int id = 0; id < size; id++) successors += map.get(id).getSize();
+        int capacity = Integer.highestOneBit(Math.max(1, 2 * size - 1)) * 2;
+        long[] keyArray = new long[capacity];
+        int[] slotArray = new int[capacity];
+        char[] windowArray = new char[size * windowLength];
+        int[] offsetArray = new int[size + 1];
+        char[] symbolArray = new char[successors];
+        int[] cumulativeArray = new int[successors];
+        boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+        int k = 0;
+        for (int id = 0; id < size; id++) {
+            map.window(id).getChars(0, windowLength, windowArray, id * windowLength);
+            long key = windowKeys.key(windowArray, id * windowLength);
+            int slot = WindowKeys.slot(key, capacity - 1);
+            while (slotArray[slot] != 0) slot = (slot + 1) & (capacity - 1);
+            keyArray[slot] = key;
+            slotArray[slot] = id + 1;
+            offsetArray[id] = k;
+            int sum = 0;
+            ListIterator it = map.get(id).listIterator(0);
+            while (it != null && it.hasNext()) {
+                CharData cd = it.next();
+                sum += cd.count;
+                symbolArray[k] = cd.chr;
+                cumulativeArray[k] = sum;
+                seen[cd.chr] = true;
+                k++;
+            }
+        }
+        offsetArray[size] = k;
+        keys = LongBuffer.wrap(keyArray);
+        slots = IntBuffer.wrap(slotArray);
+        windows = CharBuffer.wrap(windowArray);
+        offsets = IntBuffer.wrap(offsetArray);
+        symbols = CharBuffer.wrap(symbolArray);
+        cumulative = IntBuffer.wrap(cumulativeArray);
+        StringBuilder chars = new StringBuilder();
+        for (int c = 0; c < seen.length; c++) {
+            if (seen[c]) chars.append((char) c);
+        }
+        alphabet = CharBuffer.wrap(chars.toString().toCharArray());
+        if (sampling == Sampling.ALIAS) {
+            double[] probabilityArray = new double[successors];
+            int[] aliasArray = new int[successors];
+            buildAliasTables(probabilityArray, aliasArray);
+            aliasProbability = DoubleBuffer.wrap(probabilityArray);
+            alias = IntBuffer.wrap(aliasArray);
+        } else {
+            aliasProbability = null;
+            alias = null;
+        }
+        if (compiled) {
+            int[] nextArray = new int[successors];
+            buildTransitions(nextArray);
+            next = IntBuffer.wrap(nextArray);
+        } else {
+            next = null;
+        }
+    }
+
+    // Constructs a model over the sections of a model file (see save()).
+    private FrozenModel(ByteBuffer buf) throws IOException {
+        buf.order(ORDER);
+        if (buf.remaining() < 40 || buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a language model file");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("Unsupported language model file version: " + buf.getInt(4));
+        }
+        windowLength = buf.getInt(8);
+        size = buf.getInt(12);
+        int successors = buf.getInt(16);
+        int capacity = buf.getInt(20);
+        int alphabetSize = buf.getInt(24);
+        int samplingOrdinal = buf.getInt(28);
+        int compiledFlag = buf.getInt(32);
+        if (windowLength < 0 || size < 0 || (long) size * windowLength > Integer.MAX_VALUE) {
+            throw new IOException("Bad window length or window count in language model file: "
+                    + windowLength + ", " + size);
+        }
+        if (successors < 0) {
+            throw new IOException("Bad successor count in language model file: " + successors);
+        }
+        if (Integer.bitCount(capacity) != 1 || capacity <= size) {
+            throw new IOException("Bad table capacity in language model file: " + capacity);
+        }
+        if (alphabetSize < 0 || alphabetSize > Character.MAX_VALUE + 1) {
+            throw new IOException("Bad alphabet size in language model file: " + alphabetSize);
+        }
+        if (samplingOrdinal < 0 || samplingOrdinal >= Sampling.values().length) {
+            throw new IOException("Unknown sampling in language model file: " + samplingOrdinal);
+        }
+        if (compiledFlag != 0 && compiledFlag != 1) {
+            throw new IOException("Bad compiled flag in language model file: " + compiledFlag);
+        }
+        sampling = Sampling.values()[samplingOrdinal];
+        boolean compiled = compiledFlag != 0;
+        long length = fileLength(windowLength, size, successors, capacity, alphabetSize,
+                sampling == Sampling.ALIAS, compiled);
+        if (length > buf.limit()) {
+            throw new IOException("Truncated language model file: " + buf.limit() + " bytes, expected " + length);
+        }
+        if (length < buf.limit()) {
+            throw new IOException("Language model file too long: " + buf.limit() + " bytes, expected " + length);
+        }
+        windowKeys = new WindowKeys(windowLength);
+        int pos = 40;
+        keys = section(buf, pos, 8L * capacity).asLongBuffer();
+        pos = align(pos + 8L * capacity);
+        slots = section(buf, pos, 4L * capacity).asIntBuffer();
+        pos = align(pos + 4L * capacity);
+        windows = section(buf, pos, 2L * size * windowLength).asCharBuffer();
+        pos = align(pos + 2L * size * windowLength);
+        offsets = section(buf, pos, 4L * (size + 1)).asIntBuffer();
+        pos = align(pos + 4L * (size + 1));
+        symbols = section(buf, pos, 2L * successors).asCharBuffer();
+        pos = align(pos + 2L * successors);
+        cumulative = section(buf, pos, 4L * successors).asIntBuffer();
+        pos = align(pos + 4L * successors);
+        alphabet = section(buf, pos, 2L * alphabetSize).asCharBuffer();
+        pos = align(pos + 2L * alphabetSize);
+        if (sampling == Sampling.ALIAS) {
+            aliasProbability = section(buf, pos, 8L * successors).asDoubleBuffer();
+            pos = align(pos + 8L * successors);
+            alias = section(buf, pos, 4L * successors).asIntBuffer();
+            pos = align(pos + 4L * successors);
+        } else {
+            aliasProbability = null;
+            alias = null;
+        }
+        if (compiled) {
+            next = section(buf, pos, 4L * successors).asIntBuffer();
+        } else {
+            next = null;
+        }
+        // the successors of each window are a range of the successor sections
+        int previous = 0;
+        for (int id = 0; id <= size; id++) {
+            int offset = offsets.get(id);
+            if (offset < previous || offset > successors || (id == 0 && offset != 0)
+                    || (id == size && offset != successors)) {
+                throw new IOException("Bad successor offsets in language model file");
+            }
+            previous = offset;
+        }
+        // each window is in exactly one slot of the table, so some slots are empty
+        boolean[] found = new boolean[size];
+        int used = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int id = slots.get(slot) - 1;
+            if (id == -1) continue;
+            if (id < 0 || id >= size || found[id]) {
+                throw new IOException("Bad window table in language model file");
+            }
+            found[id] = true;
+            used++;
+        }
+        if (used != size) throw new IOException("Bad window table in language model file");
+        // the counts are positive, aliases stay in their window, and transitions
+        // lead to windows of the model
+        for (int id = 0; id < size; id++) {
+            int from = offsets.get(id);
+            int to = offsets.get(id + 1);
+            int sum = 1;
+            for (int i = from; i < to; i++) {
+                if (cumulative.get(i) < sum) {
+                    throw new IOException("Bad successor counts in language model file");
+                }
+                sum = cumulative.get(i);
+                if (alias != null && (alias.get(i) < from || alias.get(i) >= to
+                        || !(aliasProbability.get(i) >= 0 && aliasProbability.get(i) <= 1))) {
+                    throw new IOException("Bad alias tables in language model file");
+                }
+                if (next != null && (next.get(i) < -1 || next.get(i) >= size)) {
+                    throw new IOException("Bad transitions in language model file");
+                }
+            }
+        }
+    }
+
+    // Returns the length of a model file with the given header fields (see save()).
+    private static long fileLength(int windowLength, int size, int successors, int capacity,
+            int alphabetSize, boolean alias, boolean compiled) {
+        long length = 40;
+        length = alignLong(length + 8L * capacity);
+        length = alignLong(length + 4L * capacity);
+        length = alignLong(length + 2L * size * windowLength);
+        length = alignLong(length + 4L * (size + 1));
+        length = alignLong(length + 2L * successors);
+        length = alignLong(length + 4L * successors);
+        length = alignLong(length + 2L * alphabetSize);
+        if (alias) length = alignLong(alignLong(length + 8L * successors) + 4L * successors);
+        if (compiled) length = alignLong(length + 4L * successors);
+        return length;
+    }
+
+    // Returns the given number of bytes of buf, starting at the given position.
+    private static ByteBuffer section(ByteBuffer buf, long pos, long length) throws IOException {
+        if (pos + length > buf.limit()) throw new IOException("Truncated language model file");
+        return buf.slice((int) pos, (int) length).order(ORDER);
+    }
+
+    // Rounds the given position up to a multiple of 8, where each section starts.
+    private static int align(long pos) {
+        return (int) alignLong(pos);
+    }
+
+    // Rounds the given position up to a multiple of 8, for lengths past 2 GB.
+    private static long alignLong(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    /** Loads a model saved by save(). The file is memory-mapped, not copied: the
+     *  model works directly on the mapped pages. Loading checks the header and
+     *  every section, which reads the file once, and throws an IOException if
+     *  it is not a valid model file. The file must not change while the model
+     *  is in use. */
+    public static FrozenModel load(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Language model file larger than 2 GB: " + fileName);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FrozenModel(buf);
+        }
+    }
+
+    /** Saves this model to the given file, in the binary format read by load().
+     *  <p>
+     *  The format (version 1, little-endian) is a 40-byte header of ints: the
+     *  magic number "LMOD", the version, windowLength, the number of windows, the
+     *  number of successors, the number of table slots, the size of the alphabet,
+     *  the sampling (as its ordinal), 1 if the model is compiled or else 0, and
+     *  0. It is followed by the arrays of the model, each starting at a multiple
+     *  of 8 bytes: keys, slots, windows, offsets, symbols, cumulative, alphabet,
+     *  then aliasProbability and alias for ALIAS sampling, then next for a
+     *  compiled model. */
+    public void save(String fileName) throws IOException {
+        long length = fileLength(windowLength, size, symbols.limit(), keys.limit(), alphabet.limit(),
+                alias != null, next != null);
+        if (length > Integer.MAX_VALUE) throw new IOException("Language model too large to save");
+        ByteBuffer buf = ByteBuffer.allocate((int) length).order(ORDER);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(windowLength).putInt(size).putInt(symbols.limit())
+                .putInt(keys.limit()).putInt(alphabet.limit()).putInt(sampling.ordinal())
+                .putInt(next != null ? 1 : 0).putInt(0);
+        int pos = 40;
+        buf.slice(pos, 8 * keys.limit()).order(ORDER).asLongBuffer().put(keys.duplicate().rewind());
+        pos = align(pos + 8L * keys.limit());
+        buf.slice(pos, 4 * slots.limit()).order(ORDER).asIntBuffer().put(slots.duplicate().rewind());
+        pos = align(pos + 4L * slots.limit());
+        buf.slice(pos, 2 * windows.limit()).order(ORDER).asCharBuffer().put(windows.duplicate().rewind());
+        pos = align(pos + 2L * windows.limit());
+        buf.slice(pos, 4 * offsets.limit()).order(ORDER).asIntBuffer().put(offsets.duplicate().rewind());
+        pos = align(pos + 4L * offsets.limit());
+        buf.slice(pos, 2 * symbols.limit()).order(ORDER).asCharBuffer().put(symbols.duplicate().rewind());
+        pos = align(pos + 2L * symbols.limit());
+        buf.slice(pos, 4 * cumulative.limit()).order(ORDER).asIntBuffer().put(cumulative.duplicate().rewind());
+        pos = align(pos + 4L * cumulative.limit());
+        buf.slice(pos, 2 * alphabet.limit()).order(ORDER).asCharBuffer().put(alphabet.duplicate().rewind());
+        pos = align(pos + 2L * alphabet.limit());
+        if (alias != null) {
+            buf.slice(pos, 8 * aliasProbability.limit()).order(ORDER).asDoubleBuffer()
+                    .put(aliasProbability.duplicate().rewind());
+            pos = align(pos + 8L * aliasProbability.limit());
+            buf.slice(pos, 4 * alias.limit()).order(ORDER).asIntBuffer().put(alias.duplicate().rewind());
+            pos = align(pos + 4L * alias.limit());
+        }
+        if (next != null) {
+            buf.slice(pos, 4 * next.limit()).order(ORDER).asIntBuffer().put(next.duplicate().rewind());
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buf.rewind();
+            while (buf.hasRemaining()) channel.write(buf);
+        }
+    }
+
+    // Finds the window that follows each successor of each window.
+    private void buildTransitions(int[] next) {
+        char[] buf = new char[windowLength];
+        for (int id = 0; id < size; id++) {
+            int start = id * windowLength;
+            for (int i = 0; i < windowLength; i++) buf[i] = windows.get(start + i);
+            long key = windowKeys.key(buf, 0);
+            char first = windowLength > 0 ? buf[0] : 0;
+            if (windowLength > 0) System.arraycopy(buf, 1, buf, 0, windowLength - 1);
+            for (int i = offsets.get(id); i < offsets.get(id + 1); i++) {
+                if (windowLength == 0) {
+                    next[i] = id;
+                    continue;
+                }
+                buf[windowLength - 1] = symbols.get(i);
+                next[i] = find(windowKeys.roll(key, first, symbols.get(i)), buf, 0);
+            }
+        }
+    }
+
+    // Builds the alias tables of all windows with Vose's method. The weights are
+    // kept as exact integers: successor i of a window with k successors and total
+    // count T has weight count_i * k, and each column of the table holds T.
+    private void buildAliasTables(double[] aliasProbability, int[] alias) {
+        long[] weight = new long[0];
+        int[] small = new int[0];
+        int[] large = new int[0];
+        for (int id = 0; id < size; id++) {
+            int from = offsets.get(id);
+            int k = offsets.get(id + 1) - from;
+            if (k == 0) continue;
+            if (weight.length < k) {
+                weight = new long[k];
+                small = new int[k];
+                large = new int[k];
+            }
+            long total = cumulative.get(from + k - 1);
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < k; i++) {
+                long count = cumulative.get(from + i) - (i == 0 ? 0 : cumulative.get(from + i - 1));
+                weight[i] = count * k;
+                if (weight[i] < total) small[smallCount++] = i;
+                else large[largeCount++] = i;
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int s = small[--smallCount];
+                int l = large[--largeCount];
+                aliasProbability[from + s] = (double) weight[s] / total;
+                alias[from + s] = from + l;
+                weight[l] -= total - weight[s];
+                if (weight[l] < total) small[smallCount++] = l;
+                else large[largeCount++] = l;
+            }
+            while (largeCount > 0) {
+                int l = large[--largeCount];
+                aliasProbability[from + l] = 1;
+                alias[from + l] = from + l;
+            }
+            while (smallCount > 0) {
+                int s = small[--smallCount];
+                aliasProbability[from + s] = 1;
+                alias[from + s] = from + s;
+            }
+        }
+    }
+
+    /** Returns the window length used in this model. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the number of windows in this model. */
+    public int size() {
+        return size;
+    }
+
+    /** Checks if this model stores the window that follows each successor. */
+    public boolean isCompiled() {
+        return next != null;
+    }
+
+    /** Returns the way in which this model draws successors. */
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /** Returns the distinct characters that this model can generate, in increasing order. */
+    public String getAlphabet() {
+        return alphabet.duplicate().rewind().toString();
+    }
+
+    /** Returns the number of bytes taken by the arrays of this model. */
+    public long sizeInBytes() {
+        long bytes = 12L * keys.limit() + 2L * windows.limit() + 4L * offsets.limit()
+                + 6L * symbols.limit() + 2L * alphabet.limit();
+        if (alias != null) bytes += 12L * alias.limit();
+        if (next != null) bytes += 4L * next.limit();
+        return bytes;
+    }
+
+    /** Returns the id of the window that starts at index off of the given array,
+     *  or -1 if the window is not in this model. */
+    public int find(char[] buf, int off) {
+        return find(windowKeys.key(buf, off), buf, off);
+    }
+
+    // Returns the id of the window with the given key that starts at index off
+    // of buf, or -1 if the window is not in this model.
+    private int find(long key, char[] buf, int off) {
+        int mask = slots.limit() - 1;
+        for (int slot = WindowKeys.slot(key, mask); slots.get(slot) != 0; slot = (slot + 1) & mask) {
+            if (keys.get(slot) == key && matches(slots.get(slot) - 1, buf, off)) return slots.get(slot) - 1;
+        }
+        return -1;
+    }
+
+    /** Returns a random successor of the window with the given id, drawn with the
+     *  given generator in the way of this model. */
+    public char getRandomChar(int id, RandomGenerator random) {
+        int i = sample(id, random);
+        return i == -1 ? 0 : symbols.get(i);
+    }
+
+    // Returns the position of a random successor of the window with the given id,
+    // drawn in the way of this model, or -1 if none was drawn.
+    private int sample(int id, RandomGenerator random) {
+        switch (sampling) {
+            case ALIAS:
+                return sampleAlias(id, random);
+            case BINARY_SEARCH:
+                return sampleSearch(id, random);
+            default:
+                return sampleScan(id, random);
+        }
+    }
+
+    // Draws exactly as LanguageModel.getRandomChar does, so the same generator
+    // produces the same characters. Like it, draws the last successor if
+    // rounding leaves the last cumulative probability below the random double.
+    private int sampleScan(int id, RandomGenerator random) {
+        double close = random.nextDouble();
+        int from = offsets.get(id);
+        int to = offsets.get(id + 1);
+        double num = cumulative.get(to - 1);
+        double current = 0;
+        int previous = 0;
+        for (int i = from; i < to; i++) {
+            current = current + (cumulative.get(i) - previous) / num;
+            previous = cumulative.get(i);
+            if (current >= close) return i;
+        }
+        return to > from ? to - 1 : -1;
+    }
+
+    // Draws with the alias tables: the integer part of a random double scaled by
+    // the number of successors picks a column, and its fraction picks between
+    // the successor of the column and its alias.
+    private int sampleAlias(int id, RandomGenerator random) {
+        int from = offsets.get(id);
+        int k = offsets.get(id + 1) - from;
+        double x = random.nextDouble() * k;
+        int column = Math.min((int) x, k - 1);
+        int i = from + column;
+        return x - column < aliasProbability.get(i) ? i : alias.get(i);
+    }
+
+    // Draws a random int r below the total count of the window, and returns the
+    // first successor whose cumulative count is greater than r.
+    private int sampleSearch(int id, RandomGenerator random) {
+        int lo = offsets.get(id);
+        int hi = offsets.get(id + 1) - 1;
+        int r = random.nextInt(cumulative.get(hi));
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative.get(mid) > r) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    /** Generates a random text, as LanguageModel.generate does, drawing from the
+     *  given generator. A LanguageModel and its frozen copy with SCAN sampling
+     *  generate the same text from generators with the same seed. */
+    public String generate(String initialText, int textLength, RandomGenerator random) {
+        StringBuilder text = new StringBuilder(initialText.length() + textLength);
+        text.append(initialText);
+        try {
+            generate(initialText, textLength, random, text);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    /** Generates a random text, as generate(String, int, RandomGenerator) does, and appends
+     *  the generated characters (without the initial text) to out. The current
+     *  window is kept in a ring buffer and its key is rolled, so no objects are
+     *  created per generated character. A compiled model looks up only the
+     *  initial window, and then follows the stored transitions. */
+    public void generate(CharSequence initialText, int textLength, RandomGenerator random, Appendable out)
+            throws IOException {
+        if (initialText.length() < windowLength) return;
+        // The window is ring[pos, pos + windowLength); each character is stored
+        // twice, windowLength apart, so the window never wraps around.
+        char[] ring = new char[2 * windowLength];
+        int start = initialText.length() - windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            ring[i] = ring[i + windowLength] = initialText.charAt(start + i);
+        }
+        long key = windowKeys.key(ring, 0);
+        if (next != null) {
+            walk(find(key, ring, 0), textLength, random, out);
+            return;
+        }
+        int pos = 0;
+        for (int i = 0; i < textLength; i++) {
+            int id = find(key, ring, pos);
+            if (id == -1) break;
+            char chr = getRandomChar(id, random);
+            out.append(chr);
+            if (windowLength > 0) {
+                key = windowKeys.roll(key, ring[pos], chr);
+                ring[pos] = ring[pos + windowLength] = chr;
+                if (++pos == windowLength) pos = 0;
+            }
+        }
+    }
+
+    /** Generates the texts of the given requests concurrently, one virtual thread
+     *  per request, and returns them in the order of the requests. Each request
+     *  draws from its own SplittableRandom, seeded with the seed of the request,
+     *  so each text is the same regardless of how many requests run at once or
+     *  how they are scheduled. This model is only read, so any number of batches
+     *  can run on it at the same time. */
+    public String[] generateAll(GenerationRequest[] requests) {
+        ArrayList<Future<String>> futures = new ArrayList<Future<String>>(requests.length);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (GenerationRequest request : requests) {
+                futures.add(executor.submit(() -> generate(request.getInitialText(),
+                        request.getTextLength(), new SplittableRandom(request.getSeed()))));
+            }
+            String[] texts = new String[requests.length];
+            for (int i = 0; i < texts.length; i++) {
+                texts[i] = futures.get(i).get();
+            }
+            return texts;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating texts", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not generate a text", e.getCause());
+        }
+    }
+
+    // Generates up to textLength characters from the window with the given id,
+    // following the transitions of a compiled model. Stops where the hash lookup
+    // would: when the window is not in the model (id -1).
+    private void walk(int id, int textLength, RandomGenerator random, Appendable out) throws IOException {
+        for (int i = 0; i < textLength && id != -1; i++) {
+            int successor = sample(id, random);
+            if (successor == -1) {
+                // as getRandomChar: char 0; text corpora have no window ending with it
+                out.append((char) 0);
+                return;
+            }
+            out.append(symbols.get(successor));
+            id = next.get(successor);
+        }
+    }
+
+    // Checks if the window with the given id equals the window starting at index off of buf.
+    private boolean matches(int id, char[] buf, int off) {
+        if (windowKeys.isExact()) return true;
+        int start = id * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (windows.get(start + i) != buf[off + i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+/** A request to generate a random text, for FrozenModel.generateAll():
+ *  the text to start with, the number of characters to generate, and the
+ *  seed of the random number generator used for this request only. */
+public class GenerationRequest {
+
+    // The text to start with.
+    private final String initialText;
+
+    // The number of characters to generate.
+    private final int textLength;
+
+    // The seed of the random number generator of this request.
+    private final long seed;
+
+    /** Constructs a request to generate textLength characters after the given
+     *  initial text, drawing from a generator with the given seed. */
+    public GenerationRequest(String initialText, int textLength, long seed) {
+        this.initialText = initialText;
+        this.textLength = textLength;
+        this.seed = seed;
+    }
+
+    /** Returns the text to start with. */
+    public String getInitialText() {
+        return initialText;
+    }
+
+    /** Returns the number of characters to generate. */
+    public int getTextLength() {
+        return textLength;
+    }
+
+    /** Returns the seed of the random number generator of this request. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Returns a textual representation of this request. */
+    public String toString() {
+        return "(" + initialText + " " + textLength + " " + seed + ")";
+    }
+}
@@ -9,14 +9,23 @@
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.Socket;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
@@ -45,6 +54,13 @@ import java.util.regex.Pattern;
  *  consist of \n, \r, \r\n, and Unicode hex code points 0x2028, 0x2029, 0x0085;
  *  see <a href="http://www.docjar.com/html/api/java/util/Scanner.java.html">
  *  Scanner.java</a> (NB: Java 6u23 and earlier uses only \r, \r, \r\n).
+ *  <p>
+ *  A local file is read through a {@link FileChannel} and a UTF-8
+ *  {@link CharsetDecoder}: {@link #read(char[], int, int)}, {@link #readAll()}
+ *  and {@link #chunks(int)} decode it straight into char arrays, with no
+ *  {@link Scanner} and no regular expressions, until a method that reads
+ *  tokens or lines is called. That method creates a Scanner over the rest of
+ *  the file, which all the methods read from from then on.
  *
  *  @author David Pritchard
  *  @author Robert Sedgewick
@@ -71,10 +87,21 @@ public final class In {
     // http://weblogs.java.net/blog/pat/archive/2004/10/stupid_scanner_1.html
     private static final Pattern EVERYTHING_PATTERN = Pattern.compile("\\A");
 
+    // matches any run of characters, including line terminators; used with
+    // a horizon to read the input a bounded chunk at a time
+    private static final Pattern CHUNK_PATTERN = Pattern.compile("(?s).+");
+
     //// end: section (1 of 2) of code duplicated from In to StdIn.
 
+    // the number of bytes read from a file channel at a time
+    private static final int BYTE_BUFFER_SIZE = 1 << 16;
+
+    // created lazily for a local file, which is read by reader until then
     private Scanner scanner;
 
+    // decodes a local file; null for other sources
+    private ChannelReader reader;
+
    /**
      * Initializes an input stream from standard input.
      */
@@ -132,11 +159,7 @@ public final class In {
     public In(File file) {
         if (file == null) throw new IllegalArgumentException("file argument is null");
         try {
-            // for consistency with StdIn, wrap with BufferedInputStream instead of use
-            // file as argument to Scanner
-            FileInputStream fis = new FileInputStream(file);
-            scanner = new Scanner(new BufferedInputStream(fis), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            reader = new ChannelReader(FileChannel.open(file.toPath()));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + file, ioe);
@@ -159,11 +182,7 @@ public final class In {
             // first try to read file from local file system
             File file = new File(name);
             if (file.exists()) {
-                // for consistency with StdIn, wrap with BufferedInputStream instead of use
-                // file as argument to Scanner
-                FileInputStream fis = new FileInputStream(file);
-                scanner = new Scanner(new BufferedInputStream(fis), CHARSET_NAME);
-                scanner.useLocale(LOCALE);
+                reader = new ChannelReader(FileChannel.open(file.toPath()));
                 return;
             }
 
@@ -216,7 +235,17 @@ public final class In {
      * @return {@code true} if this input stream exists; {@code false} otherwise
      */
     public boolean exists()  {
-        return scanner != null;
+        return scanner != null || reader != null;
+    }
+
+    // Returns the scanner of this input stream, creating it over the rest of
+    // a local file the first time.
+    private Scanner scanner() {
+        if (scanner == null && reader != null) {
+            scanner = new Scanner(reader);
+            scanner.useLocale(LOCALE);
+        }
+        return scanner;
     }
 
     ////  begin: section (2 of 2) of code duplicated from In to StdIn,
@@ -231,7 +260,7 @@ public final class In {
      *         {@code false} otherwise
      */
     public boolean isEmpty() {
-        return !scanner.hasNext();
+        return !scanner().hasNext();
     }
 
    /**
@@ -244,7 +273,7 @@ public final class In {
      *         {@code false} otherwise
      */
     public boolean hasNextLine() {
-        return scanner.hasNextLine();
+        return scanner().hasNextLine();
     }
 
     /**
@@ -256,9 +285,9 @@ public final class In {
      *         {@code false} otherwise
      */
     public boolean hasNextChar() {
-        scanner.useDelimiter(EMPTY_PATTERN);
-        boolean result = scanner.hasNext();
-        scanner.useDelimiter(WHITESPACE_PATTERN);
+        scanner().useDelimiter(EMPTY_PATTERN);
+        boolean result = scanner().hasNext();
+        scanner().useDelimiter(WHITESPACE_PATTERN);
         return result;
     }
 
@@ -271,7 +300,7 @@ public final class In {
     public String readLine() {
         String line;
         try {
-            line = scanner.nextLine();
+            line = scanner().nextLine();
         }
         catch (NoSuchElementException e) {
             line = null;
@@ -286,12 +315,12 @@ public final class In {
      * @throws NoSuchElementException if the input stream is empty
      */
     public char readChar() {
-        scanner.useDelimiter(EMPTY_PATTERN);
+        scanner().useDelimiter(EMPTY_PATTERN);
         try {
-            String ch = scanner.next();
+            String ch = scanner().next();
             assert ch.length() == 1 : "Internal (Std)In.readChar() error!"
                 + " Please contact the authors.";
-            scanner.useDelimiter(WHITESPACE_PATTERN);
+            scanner().useDelimiter(WHITESPACE_PATTERN);
             return ch.charAt(0);
         }
         catch (NoSuchElementException e) {
@@ -301,18 +330,54 @@ public final class In {
     }
 
 
+   /**
+     * Reads up to {@code len} characters from this input stream into the
+     * given array, starting at index {@code off}. Unlike {@link #readAll()},
+     * this reads the input a bounded chunk at a time, so it can be used on
+     * inputs that do not fit in memory.
+     *
+     * @param  cbuf the destination array
+     * @param  off the index in {@code cbuf} of the first character to write
+     * @param  len the maximum number of characters to read
+     * @return the number of characters read, or -1 if the input stream is empty
+     * @throws IllegalArgumentException if {@code len} is not positive
+     */
+    public int read(char[] cbuf, int off, int len) {
+        if (len <= 0) throw new IllegalArgumentException("len must be positive: " + len);
+        if (scanner == null && reader != null) {
+            try {
+                return reader.read(cbuf, off, len);
+            }
+            catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        String chunk = scanner().findWithinHorizon(CHUNK_PATTERN, len);
+        if (chunk == null) return -1;
+        chunk.getChars(0, chunk.length(), cbuf, off);
+        return chunk.length();
+    }
+
    /**
      * Reads and returns the remainder of this input stream, as a string.
      *
      * @return the remainder of this input stream, as a string
      */
     public String readAll() {
-        if (!scanner.hasNextLine())
+        if (scanner == null && reader != null) {
+            try {
+                return reader.readAll();
+            }
+            catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        if (!scanner().hasNextLine())
             return "";
 
-        String result = scanner.useDelimiter(EVERYTHING_PATTERN).next();
+        String result = scanner().useDelimiter(EVERYTHING_PATTERN).next();
         // not that important to reset delimeter, since now scanner is empty
-        scanner.useDelimiter(WHITESPACE_PATTERN); // but let's do it anyway
+        scanner().useDelimiter(WHITESPACE_PATTERN); // but let's do it anyway
         return result;
     }
 
@@ -325,7 +390,7 @@ public final class In {
      */
     public String readString() {
         try {
-            return scanner.next();
+            return scanner().next();
         }
         catch (NoSuchElementException e) {
             throw new NoSuchElementException("attempts to read a 'String' value from the input stream, "
@@ -343,10 +408,10 @@ public final class In {
      */
     public int readInt() {
         try {
-            return scanner.nextInt();
+            return scanner().nextInt();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read an 'int' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -366,10 +431,10 @@ public final class In {
      */
     public double readDouble() {
         try {
-            return scanner.nextDouble();
+            return scanner().nextDouble();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'double' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -389,10 +454,10 @@ public final class In {
      */
     public float readFloat() {
         try {
-            return scanner.nextFloat();
+            return scanner().nextFloat();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'float' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -412,10 +477,10 @@ public final class In {
      */
     public long readLong() {
         try {
-            return scanner.nextLong();
+            return scanner().nextLong();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'long' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -435,10 +500,10 @@ public final class In {
      */
     public short readShort() {
         try {
-            return scanner.nextShort();
+            return scanner().nextShort();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'short' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -460,10 +525,10 @@ public final class In {
      */
     public byte readByte() {
         try {
-            return scanner.nextByte();
+            return scanner().nextByte();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'byte' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -579,7 +644,126 @@ public final class In {
      * Closes this input stream.
      */
     public void close() {
-        scanner.close();
+        if (scanner != null) scanner.close();
+        else if (reader != null) {
+            try {
+                reader.close();
+            }
+            catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+   /**
+     * Returns an iterator over the remainder of this input stream, a chunk of
+     * at most {@code size} characters at a time, as read by
+     * {@link #read(char[], int, int)}. The iterator reuses one buffer: each
+     * chunk it returns is valid until the next call to {@code next()}.
+     *
+     * @param  size the largest number of characters in a chunk
+     * @return an iterator over the chunks of the remainder of this input stream
+     * @throws IllegalArgumentException if {@code size} is not positive
+     */
+    public Iterator<CharBuffer> chunks(int size) {
+        if (size <= 0) throw new IllegalArgumentException("size must be positive: " + size);
+        return new Iterator<CharBuffer>() {
+            private final char[] buf = new char[size];
+            private final CharBuffer chunk = CharBuffer.wrap(buf);
+
+            // the length of the chunk read ahead, -1 at the end, or -2 if none was read
+            private int length = -2;
+
+            public boolean hasNext() {
+                if (length == -2) length = read(buf, 0, size);
+                return length != -1;
+            }
+
+            public CharBuffer next() {
+                if (!hasNext()) throw new NoSuchElementException("no more chunks in the input stream");
+                chunk.clear().limit(length);
+                length = -2;
+                return chunk;
+            }
+        };
+    }
+
+    // Decodes a file channel as UTF-8 straight into the buffers of the caller,
+    // through one reused byte buffer. Malformed input is replaced, as by the
+    // InputStreamReader of a Scanner.
+    private static final class ChannelReader extends Reader {
+        private final FileChannel channel;
+        private final CharsetDecoder decoder;
+        private final ByteBuffer bytes;
+        private boolean endOfInput;
+        private boolean done;
+
+        // The chars decoded but not handed out yet: the second half of a
+        // surrogate pair that was read into a buffer with room for one char.
+        private final CharBuffer pending;
+
+        ChannelReader(FileChannel channel) {
+            this.channel = channel;
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+            bytes.flip();
+            pending = CharBuffer.allocate(2);
+            pending.flip();
+        }
+
+        // Fills as much of cbuf[off, off + len) as the rest of the file allows;
+        // returns the number of characters read (at least 1 if len > 0), or -1
+        // at the end of the file.
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            while (pending.hasRemaining() && out.hasRemaining()) out.put(pending.get());
+            decode(out);
+            if (out.position() == off && !done) {
+                // no room for the two chars of the next code point: decodes
+                // it on the side and hands out its first char
+                pending.clear();
+                decode(pending);
+                pending.flip();
+                if (pending.hasRemaining()) out.put(pending.get());
+            }
+            int n = out.position() - off;
+            return n == 0 && done ? -1 : n;
+        }
+
+        // Decodes into out until it is full or the file ends.
+        private void decode(CharBuffer out) throws IOException {
+            while (out.hasRemaining() && !done) {
+                CoderResult result = decoder.decode(bytes, out, endOfInput);
+                if (result.isOverflow()) break;
+                if (endOfInput) {
+                    if (decoder.flush(out).isOverflow()) break;
+                    done = true;
+                    break;
+                }
+                bytes.compact();
+                if (channel.read(bytes) == -1) endOfInput = true;
+                bytes.flip();
+            }
+        }
+
+        // Returns the rest of the file. A UTF-8 byte decodes to at most one
+        // char, so the chars fit in an array of the number of bytes left.
+        String readAll() throws IOException {
+            long left = channel.size() - channel.position() + bytes.remaining() + pending.remaining();
+            if (left >= Integer.MAX_VALUE) throw new IOException("File too large to read into a string");
+            char[] chars = new char[(int) left + 1];
+            int length = 0;
+            int n;
+            while ((n = read(chars, length, chars.length - length)) > 0) length += n;
+            return new String(chars, 0, length);
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
     }
 
     /**
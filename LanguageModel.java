@@ -1,17 +1,88 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
 
 public class LanguageModel {
 
+    // The number of corpus characters read at a time by the streaming train methods.
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The number of windows below which trainParallel counts a shard sequentially.
+    private static final int SHARD_SIZE = 1 << 16;
+
+    // The estimated heap bytes of a window, besides its characters (its table
+    // slots, list and list reference), and of a successor (its node and CharData).
+    private static final long BYTES_PER_WINDOW = 80;
+    private static final long BYTES_PER_SUCCESSOR = 64;
+
+    // The fraction of the memory budget that pruning brings the model down to.
+    private static final double PRUNE_TARGET = 0.75;
+
+    // The longest forced run that is found in one walk (see setForcedRuns).
+    private static final int MAX_RUN = 1 << 10;
+
     // The map of this model.
     // Maps windows to lists of charachter data objects.
-    HashMap<String, List> CharDataMap;
+    ContextMap CharDataMap;
     
     // The window length used in this model.
     int windowLength;
     
     // The random number generator used by this model. 
-	private Random randomGenerator;
+	private RandomGenerator randomGenerator;
+
+    // The ids of the windows whose counts changed since their probabilities
+    // were last computed.
+    private BitSet dirty;
+
+    // The estimated size above which training prunes the model (see setMemoryBudget).
+    private long memoryBudget = Long.MAX_VALUE;
+
+    // The count below which windows and successors are pruned.
+    private int pruneThreshold = 2;
+
+    // The number of successors (list elements) in the model.
+    private long successors;
+
+    // The number of windows counted in training, and what pruning discarded.
+    private int prunes;
+    private long trainedMass;
+    private long prunedMass;
+    private long prunedWindows;
+    private long prunedSuccessors;
+
+    // Whether generation emits the forced runs of windows without drawing.
+    private boolean forcedRuns;
+
+    // How generation draws the successor of a window (see setSampling).
+    private Sampling sampling = Sampling.SCAN;
+
+    // For samplings other than SCAN: a frozen copy of this model that draws the
+    // successors, built by freeze(). Null until then, and again after training.
+    private FrozenModel sampler;
+
+    // The forced runs found so far, by window id: where the run starts in
+    // runChars, its length (0 if not found yet), and the id of the window that
+    // follows it (-1 if unseen). A run that is a suffix of another shares its
+    // characters, so runChars holds at most one character per window. Null
+    // until generation needs them, and again after training.
+    private int[] runStart;
+    private int[] runLength;
+    private int[] runEnd;
+    private char[] runChars;
+    private int runCharsSize;
 
     /** Constructs a language model with the given window length and a given
      *  seed value. Generating texts from this model multiple times with the 
@@ -19,7 +90,8 @@ public class LanguageModel {
     public LanguageModel(int windowLength, int seed) {
         this.windowLength = windowLength;
         randomGenerator = new Random(seed);
-        CharDataMap = new HashMap<String, List>();
+        CharDataMap = new ContextMap(windowLength);
+        dirty = new BitSet();
     }
 
     /** Constructs a language model with the given window length.
@@ -28,78 +100,621 @@ public class LanguageModel {
     public LanguageModel(int windowLength) {
         this.windowLength = windowLength;
         randomGenerator = new Random();
-        CharDataMap = new HashMap<String, List>();
+        CharDataMap = new ContextMap(windowLength);
+        dirty = new BitSet();
     } 
+
+    /** Constructs a language model with the given window length, which draws
+     *  from the given random number generator (any algorithm, for example a
+     *  java.util.Random or an L64X128MixRandom). */
+    public LanguageModel(int windowLength, RandomGenerator randomGenerator) {
+        this.windowLength = windowLength;
+        this.randomGenerator = randomGenerator;
+        CharDataMap = new ContextMap(windowLength);
+        dirty = new BitSet();
+    }
+
+    /** Returns a language model with the given window length, which draws from
+     *  a generator of the given algorithm (a name known to RandomGeneratorFactory,
+     *  such as "L64X128MixRandom" or "Xoroshiro128PlusPlus"), seeded with the
+     *  given seed. If no such algorithm is available, throws an
+     *  IllegalArgumentException that names it. */
+    public static LanguageModel of(int windowLength, String algorithm, long seed) {
+        return new LanguageModel(windowLength, RandomGeneratorFactory.of(algorithm).create(seed));
+    }
+
+    /** Returns the given number of new generators derived from the generator of
+     *  this model, for generating in parallel (for example from a FrozenModel of
+     *  this model) without sharing a generator between threads. Splittable
+     *  generators are split, and jumpable ones are copied and jumped; both give
+     *  statistically independent streams, and the same streams every time for a
+     *  seeded generator. Other generators, including java.util.Random, throw
+     *  UnsupportedOperationException. */
+    public RandomGenerator[] splitGenerator(int count) {
+        RandomGenerator[] generators = new RandomGenerator[count];
+        for (int i = 0; i < count; i++) {
+            if (randomGenerator instanceof RandomGenerator.SplittableGenerator) {
+                generators[i] = ((RandomGenerator.SplittableGenerator) randomGenerator).split();
+            } else if (randomGenerator instanceof RandomGenerator.JumpableGenerator) {
+                generators[i] = ((RandomGenerator.JumpableGenerator) randomGenerator).copyAndJump();
+            } else {
+                throw new UnsupportedOperationException(
+                        "Cannot split a " + randomGenerator.getClass().getSimpleName());
+            }
+        }
+        return generators;
+    }
+
+    /** Constructs a copy of the given language model, with the same window length,
+     *  counts and settings (list order and storage, memory budget, sampling and
+     *  forced runs), and an unseeded random number generator. Training either
+     *  model afterwards does not change the other. */
+    public LanguageModel(LanguageModel model) {
+        this(model, new Random());
+    }
+
+    /** Constructs a copy of the given language model, as LanguageModel(model)
+     *  does, which draws from the given random number generator. */
+    public LanguageModel(LanguageModel model, RandomGenerator randomGenerator) {
+        this(model.windowLength, randomGenerator);
+        copySettings(model);
+        merge(CharDataMap, model.CharDataMap, dirty);
+        successors = model.successors;
+        pruneThreshold = model.pruneThreshold;
+        prunes = model.prunes;
+        trainedMass = model.trainedMass;
+        prunedMass = model.prunedMass;
+        prunedWindows = model.prunedWindows;
+        prunedSuccessors = model.prunedSuccessors;
+    }
+
+    /** Returns a new, untrained language model with the window length and the
+     *  settings of this one (list order and storage, memory budget, sampling
+     *  and forced runs), which draws from the given random number generator. */
+    public LanguageModel untrainedCopy(RandomGenerator randomGenerator) {
+        LanguageModel model = new LanguageModel(windowLength, randomGenerator);
+        model.copySettings(this);
+        return model;
+    }
+
+    /** Returns the random number generator that this model draws from. */
+    public RandomGenerator getRandomGenerator() {
+        return randomGenerator;
+    }
+
+    // Sets the settings of this untrained model to those of the given model.
+    private void copySettings(LanguageModel model) {
+        CharDataMap = new ContextMap(windowLength, model.CharDataMap.getListOrder(),
+                model.CharDataMap.getListStorage());
+        memoryBudget = model.memoryBudget;
+        sampling = model.sampling;
+        forcedRuns = model.forcedRuns;
+    }
+
+    /** Sets how the successor lists of this model order their characters (see
+     *  ListOrder); INSERTION by default. The probabilities of the characters do
+     *  not depend on the order, but the texts generated with a given seed do.
+     *  Must be set before training. */
+    public void setListOrder(ListOrder order) {
+        if (CharDataMap.size() > 0) throw new IllegalStateException("The model is already trained");
+        CharDataMap = new ContextMap(windowLength, order, CharDataMap.getListStorage());
+    }
+
+    /** Sets how the successor lists of this model are stored (see ListStorage);
+     *  LINKED by default. All storages keep the same order, so the model
+     *  generates the same texts with any of them. Must be set before training. */
+    public void setListStorage(ListStorage storage) {
+        if (CharDataMap.size() > 0) throw new IllegalStateException("The model is already trained");
+        CharDataMap = new ContextMap(windowLength, CharDataMap.getListOrder(), storage);
+    }
+
+    /** Sets whether generation takes a shortcut through forced characters:
+     *  those of windows that have a single successor. Off by default, when
+     *  every generated character draws one random double, forced or not. When
+     *  on, a forced character draws nothing, so every non-forced character
+     *  draws one random double, in order, and the generated texts differ from
+     *  those with the shortcut off for the same seed. Each window that starts
+     *  a run of forced characters (up to the next window that is not forced,
+     *  unseen or in a cycle) has the whole run appended in one copy, with no
+     *  lookups of the windows along it. The runs are found lazily, as
+     *  generation reaches them, and found again after more training. */
+    public void setForcedRuns(boolean forcedRuns) {
+        this.forcedRuns = forcedRuns;
+    }
+
+    /** Sets how generation draws the successor of a window (see Sampling);
+     *  SCAN by default, which scans the cumulative probabilities of the list
+     *  as getRandomChar() does. With ALIAS or BINARY_SEARCH, freeze() also
+     *  builds a FrozenModel of this model with that sampling, which takes about
+     *  as much memory as the FrozenModel of the memory benchmark, and generation
+     *  draws from it, with the random number generator of this model. The
+     *  probabilities of the characters are the same, but the texts generated
+     *  with a given seed differ. */
+    public void setSampling(Sampling sampling) {
+        this.sampling = sampling;
+        this.sampler = null;
+    }
+
+    /** Returns the number of windows of this model whose successor lists are
+     *  in the given tier, with TIERED storage (see SuccessorTier); 0 with other
+     *  storages. Hot lists move to the DENSE tier when the model is frozen (see
+     *  TieredCharList), so call freeze() first for the tiers of generation. */
+    public int getTierCount(SuccessorTier tier) {
+        return CharDataMap.tierCount(tier);
+    }
+
+    /** Sets the memory budget of training, in bytes. Whenever the estimated
+     *  size of the model (see estimatedSize()) goes over the budget, the
+     *  successors counted fewer than a threshold number of times are removed,
+     *  and so are the windows left with no successors; the threshold starts at 2
+     *  and is doubled until the model is down to 3/4 of the budget. The
+     *  threshold never goes back down, so later windows must reach it between
+     *  prunes to survive. The budget is checked after each buffer of the
+     *  corpus, so the model can go over it by up to a buffer's worth of new
+     *  windows. Pruned windows are unseen to generate(), which stops at them. */
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+        checkMemoryBudget();
+    }
+
+    /** Returns the estimated heap size of the counts of this model, in bytes:
+     *  a fixed cost per window and per successor. */
+    public long estimatedSize() {
+        return CharDataMap.size() * (2L * windowLength + BYTES_PER_WINDOW) + successors * BYTES_PER_SUCCESSOR;
+    }
+
+    /** Returns what pruning discarded so far. */
+    public PruningStats getPruningStats() {
+        return new PruningStats(pruneThreshold, prunes, trainedMass, prunedMass, prunedWindows, prunedSuccessors);
+    }
+
+    // Prunes the model if it is over the memory budget.
+    private void checkMemoryBudget() {
+        if (estimatedSize() <= memoryBudget) return;
+        prune(pruneThreshold);
+        while (estimatedSize() > memoryBudget * PRUNE_TARGET && CharDataMap.size() > 0) {
+            pruneThreshold = pruneThreshold <= Integer.MAX_VALUE / 2 ? 2 * pruneThreshold : Integer.MAX_VALUE;
+            prune(pruneThreshold);
+        }
+    }
+
+    // Removes the successors counted fewer than threshold times, and the
+    // windows left with none. The lists that lose successors are renormalized.
+    private void prune(int threshold) {
+        for (int id = 0; id < CharDataMap.size(); id++) {
+            CharList probs = CharDataMap.get(id);
+            boolean pruned = false;
+            for (CharData cd : probs.toArray()) {
+                if (cd.count < threshold) {
+                    probs.remove(cd.chr);
+                    prunedMass += cd.count;
+                    prunedSuccessors++;
+                    successors--;
+                    pruned = true;
+                }
+            }
+            if (pruned && probs.getSize() == 0) prunedWindows++;
+        }
+        CharDataMap.removeEmpty();
+        // the ids changed, so all the probabilities are recomputed
+        dirty.clear();
+        dirty.set(0, CharDataMap.size());
+        prunes++;
+    }
  
-    /** Builds a language model from the text in the given file (the corpus). */
+    /** Builds a language model from the text in the given file (the corpus).
+     *  Training only accumulates counts; the probabilities of the affected
+     *  lists are computed once, by freeze(). */
 	public void train(String fileName) {
-        String fileString = "";
         In input = new In(fileName);
-        fileString = input.readAll();
-        for (int i = 0; i + windowLength < fileString.length(); i++) {
-            String key = fileString.substring(i, i + windowLength);
-            List value = CharDataMap.get(key);
-            if (value != null) {
-                if (value.indexOf(fileString.charAt(i + windowLength)) != -1) {
-                    value.update(fileString.charAt(i + windowLength));
+        try {
+            train(input);
+        } finally {
+            input.close();
+        }
+	}
+
+    /** Builds a language model from the text read from the given input.
+     *  The corpus is read a buffer at a time, so memory use is bounded by
+     *  the size of the model rather than the size of the corpus. */
+    public void train(In input) {
+        char[] buf = new char[windowLength + BUFFER_SIZE];
+        int len = 0;
+        int n;
+        while ((n = input.read(buf, len, buf.length - len)) != -1) {
+            len = train(buf, len + n);
+        }
+    }
+
+    /** Builds a language model from the text read from the given reader.
+     *  See train(In). */
+    public void train(Reader reader) throws IOException {
+        char[] buf = new char[windowLength + BUFFER_SIZE];
+        int len = 0;
+        int n;
+        while ((n = reader.read(buf, len, buf.length - len)) != -1) {
+            len = train(buf, len + n);
+        }
+    }
+
+    /** Builds a language model from the UTF-8 text read from the given stream.
+     *  See train(In). */
+    public void train(InputStream in) throws IOException {
+        train(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /** Builds a language model from the given mapped corpus. The windows slide
+     *  over a buffer that is filled straight from the mapped pages, so the text
+     *  is never held on the heap, and a corpus of any size can be trained on.
+     *  See train(In). */
+    public void train(MappedCorpus corpus) {
+        char[] buf = new char[windowLength + BUFFER_SIZE];
+        int len = 0;
+        long from = 0;
+        while (from < corpus.size()) {
+            int n = (int) Math.min(buf.length - len, corpus.size() - from);
+            corpus.getChars(from, buf, len, n);
+            from += n;
+            len = train(buf, len + n);
+        }
+    }
+
+    // Counts every window in buf[0, len) that is followed by a character in the
+    // buffer, then moves the last windowLength characters (the start of the next
+    // window) to the front of the buffer. Returns the new length of the buffer.
+    private int train(char[] buf, int len) {
+        int end = len - windowLength;
+        if (end <= 0) return len;
+        successors += count(CharDataMap, buf, end, dirty);
+        trainedMass += end;
+        checkMemoryBudget();
+        System.arraycopy(buf, end, buf, 0, windowLength);
+        return windowLength;
+    }
+
+    // Counts the windows starting at positions [0, end) of buf into the given map,
+    // and marks their ids in touched. Creates no objects, except for new lists
+    // and list elements. Returns the number of new list elements.
+    private static int count(ContextMap map, char[] buf, int end, BitSet touched) {
+        int windowLength = map.getWindowLength();
+        long key = map.key(buf, 0);
+        int added = 0;
+        for (int i = 0; i < end; i++) {
+            if (i > 0) key = map.roll(key, buf[i - 1], buf[i + windowLength - 1]);
+            int id = map.add(key, buf, i);
+            CharList probs = map.get(id);
+            int size = probs.getSize();
+            probs.update(buf[i + windowLength]);
+            added += probs.getSize() - size;
+            touched.set(id);
+        }
+        return added;
+    }
+
+    /** Builds a language model from the text in the given file, counting
+     *  shards of the corpus in parallel in the common fork-join pool.
+     *  See trainParallel(CharSequence, ForkJoinPool). */
+    public void trainParallel(String fileName) {
+        In input = new In(fileName);
+        String corpus;
+        try {
+            corpus = input.readAll();
+        } finally {
+            input.close();
+        }
+        trainParallel(corpus, ForkJoinPool.commonPool());
+    }
+
+    /** Builds a language model from the given corpus, counting shards of it in
+     *  parallel in the given pool. Neighbouring shards overlap by windowLength
+     *  characters, so every window is counted exactly once. Each shard is counted
+     *  into its own map and the maps are merged in corpus order, so the resulting
+     *  model (including the order of each list, in any ListOrder) is identical
+     *  to the one built by training sequentially on the same corpus. */
+    public void trainParallel(CharSequence corpus, ForkJoinPool pool) {
+        int windows = corpus.length() - windowLength;
+        if (windows <= 0) return;
+        // the orders other than INSERTION are merged by when characters were last
+        // seen, which MOVE_TO_FRONT shards keep
+        ListOrder order = CharDataMap.getListOrder() == ListOrder.INSERTION
+                ? ListOrder.INSERTION : ListOrder.MOVE_TO_FRONT;
+        merge(CharDataMap, pool.invoke(new ShardTask(corpus, windowLength, order, 0, windows)), dirty);
+        successors = 0;
+        for (int id = 0; id < CharDataMap.size(); id++) successors += CharDataMap.get(id).getSize();
+        trainedMass += windows;
+        checkMemoryBudget();
+    }
 
+    /** Builds a language model from the given mapped corpus, counting shards of
+     *  it in parallel in the given pool. A corpus of more than Integer.MAX_VALUE
+     *  characters is trained on in slices that overlap by windowLength
+     *  characters, one after the other, so the model is still identical to the
+     *  one built by train(MappedCorpus). */
+    public void trainParallel(MappedCorpus corpus, ForkJoinPool pool) {
+        long slice = Integer.MAX_VALUE - windowLength;
+        for (long from = 0; from < corpus.size() - windowLength; from += slice) {
+            CharSequence part = corpus.slice(from, Math.min(slice + windowLength, corpus.size() - from));
+            trainParallel(part, pool);
+        }
+    }
+
+    // Adds the counts of the source map to the target map, window by window in
+    // the order in which they were added to the source, and marks the ids of the
+    // affected windows of the target in touched.
+    private static void merge(ContextMap target, ContextMap source, BitSet touched) {
+        for (int i = 0; i < source.size(); i++) {
+            int id = target.add(source, i);
+            merge(target, id, source.get(i));
+            touched.set(id);
+        }
+    }
+
+    // Adds the counts of the source list to the list of the window with the
+    // given id, as if the window had been trained on the corpus of the target
+    // and then on that of the source. In INSERTION order, the characters of the
+    // source are replayed in the order in which they were first seen, so
+    // characters that are new to the target are added in that order too. The
+    // other orders depend on when the characters were last seen, which a
+    // MOVE_TO_FRONT source lists, the latest first; they are merged into a new
+    // list. An empty target takes the order of a source of its own order.
+    private static void merge(ContextMap map, int id, CharList source) {
+        CharList target = map.get(id);
+        ListOrder order = target.getOrder();
+        CharData[] arr = source.toArray();
+        if (order == ListOrder.INSERTION) {
+            for (int i = arr.length - 1; i >= 0; i--) {
+                target.update(arr[i].chr, arr[i].count);
+            }
+            return;
+        }
+        CharData[] old = target.toArray();
+        char[] chars = new char[arr.length + old.length];
+        int[] counts = new int[chars.length];
+        int size = 0;
+        if (old.length == 0 && source.getOrder() == order) {
+            for (CharData cd : arr) {
+                chars[size] = cd.chr;
+                counts[size++] = cd.count;
+            }
+        } else if (order == ListOrder.MOVE_TO_FRONT) {
+            // the characters of the source were seen after those only in the target
+            for (CharData cd : arr) {
+                int i = target.indexOf(cd.chr);
+                chars[size] = cd.chr;
+                counts[size++] = cd.count + (i == -1 ? 0 : old[i].count);
+            }
+            for (CharData cd : old) {
+                if (source.indexOf(cd.chr) != -1) continue;
+                chars[size] = cd.chr;
+                counts[size++] = cd.count;
+            }
+        } else {
+            // by decreasing count, and characters of equal count by when they
+            // reached it (when they were last seen), the earliest first
+            for (CharData cd : old) {
+                if (source.indexOf(cd.chr) != -1) continue;
+                chars[size] = cd.chr;
+                counts[size++] = cd.count;
+            }
+            for (int j = arr.length - 1; j >= 0; j--) {
+                int i = target.indexOf(arr[j].chr);
+                chars[size] = arr[j].chr;
+                counts[size++] = arr[j].count + (i == -1 ? 0 : old[i].count);
+            }
+            for (int i = 1; i < size; i++) {
+                char chr = chars[i];
+                int count = counts[i];
+                int j = i;
+                for (; j > 0 && counts[j - 1] < count; j--) {
+                    chars[j] = chars[j - 1];
+                    counts[j] = counts[j - 1];
+                }
+                chars[j] = chr;
+                counts[j] = count;
+            }
+        }
+        target = map.reset(id);
+        for (int i = size - 1; i >= 0; i--) {
+            // the first element of a list stays first when updated, in any order
+            target.addFirst(chars[i]);
+            if (counts[i] > 1) target.update(chars[i], counts[i] - 1);
+        }
+    }
+
+    // Counts the windows starting at positions [from, to) of a corpus into a
+    // map whose windows are ordered by their first occurrence in the corpus.
+    // Tasks are never serialized: the corpus is any CharSequence.
+    @SuppressWarnings("serial")
+    private static class ShardTask extends RecursiveTask<ContextMap> {
+        private final CharSequence corpus;
+        private final int windowLength;
+        private final ListOrder order;
+        private final int from;
+        private final int to;
+
+        ShardTask(CharSequence corpus, int windowLength, ListOrder order, int from, int to) {
+            this.corpus = corpus;
+            this.windowLength = windowLength;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected ContextMap compute() {
+            if (to - from <= SHARD_SIZE) {
+                char[] buf = new char[to - from + windowLength];
+                if (corpus instanceof MappedCorpus) {
+                    ((MappedCorpus) corpus).getChars(from, buf, 0, buf.length);
                 } else {
-                    value.addFirst(fileString.charAt(i + windowLength));
+                    for (int i = 0; i < buf.length; i++) buf[i] = corpus.charAt(from + i);
                 }
-            } else {
-                CharDataMap.put(key, new List());
-                CharDataMap.get(key).addFirst(fileString.charAt(i + windowLength));
+                ContextMap counts = new ContextMap(windowLength, order);
+                count(counts, buf, to - from, new BitSet());
+                return counts;
             }
-            calculateProbabilities(CharDataMap.get(key));
+            int mid = (from + to) >>> 1;
+            ShardTask left = new ShardTask(corpus, windowLength, order, from, mid);
+            left.fork();
+            ContextMap right = new ShardTask(corpus, windowLength, order, mid, to).compute();
+            ContextMap counts = left.join();
+            merge(counts, right, new BitSet());
+            return counts;
         }
-	}
+    }
 
-    // Computes and sets the probabilities (p and cp fields) of all the
-	// characters in the given list. */
-	public void calculateProbabilities(List probs) {				
-        double num = 0;
-        double current = 0;
-        for (int i = 0; i < probs.getSize(); i++) {
-            num += probs.get(i).count;
+    /** Computes the probabilities of all the lists whose counts changed since
+     *  the last call. Called lazily by generate() and toString(), and may be
+     *  called explicitly once training is done. */
+    public void freeze() {
+        // new counts can change the runs and the sampler
+        if (!dirty.isEmpty()) {
+            runLength = null;
+            sampler = null;
         }
-        for (int i = 0; i < probs.getSize(); i++) {
-            probs.get(i).p = probs.get(i).count / num;
-            probs.get(i).cp = current + probs.get(i).p;
-            current = probs.get(i).cp;
+        for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+            calculateProbabilities(CharDataMap.get(id));
         }
+        dirty.clear();
+        if (sampling != Sampling.SCAN && sampler == null) sampler = new FrozenModel(this, sampling);
+    }
+
+    // Computes and sets the probabilities (p and cp fields) of all the
+	// characters in the given list. */
+	public void calculateProbabilities(CharList probs) {
+        probs.calculateProbabilities();
 	}
 
-    // Returns a random character from the given probabilities list.
-	public char getRandomChar(List probs) {
-        double close = randomGenerator.nextDouble();
-        for (int i = 0; i < probs.getSize(); i++) {
-            if (probs.get(i).cp >= close) {return probs.get(i).chr;}
-        }
-        return 0;
+    // Returns a random character from the given probabilities list: the first
+    // whose cumulative probability is at least a random double, or the last if
+    // rounding leaves them all below it.
+	public char getRandomChar(CharList probs) {
+        return probs.select(randomGenerator.nextDouble());
 	}
 
     /**
 	 * Generates a random text, based on the probabilities that were learned during training. 
 	 * @param initialText - text to start with. If initialText's last substring of size numberOfLetters
 	 * doesn't appear as a key in Map, we generate no text and return only the initial text. 
+	 * Likewise, generation stops early if the last window of the generated text doesn't appear in Map.
 	 * @param numberOfLetters - the size of text to generate
 	 * @return the generated text
 	 */
 	public String generate(String initialText, int textLength) {
-        if (initialText.length() >= windowLength) {
-            for (int i = 0; i < textLength; i++) {
-                initialText += getRandomChar(
-                        CharDataMap.get(initialText.substring(initialText.length() - windowLength)));
-            }
+        StringBuilder text = new StringBuilder(initialText.length() + textLength);
+        text.append(initialText);
+        try {
+            generate(initialText, textLength, text);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new UncheckedIOException(e);
         }
-        return initialText;
+        return text.toString();
 	}
 
+    /** Generates a random text, as generate(String, int) does, and appends the
+     *  generated characters (without the initial text) to out. The current window
+     *  is kept in a ring buffer and its key is rolled, so no objects are created
+     *  per generated character. */
+    public void generate(CharSequence initialText, int textLength, Appendable out) throws IOException {
+        freeze();
+        if (initialText.length() < windowLength) return;
+        // The window is ring[pos, pos + windowLength); each character is stored
+        // twice, windowLength apart, so the window never wraps around.
+        char[] ring = new char[2 * windowLength];
+        int start = initialText.length() - windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            ring[i] = ring[i + windowLength] = initialText.charAt(start + i);
+        }
+        long key = CharDataMap.key(ring, 0);
+        int pos = 0;
+        for (int i = 0; i < textLength; i++) {
+            int id = CharDataMap.find(key, ring, pos);
+            if (id == -1) break;
+            int run = forcedRuns ? forcedRun(id) : 0;
+            if (run > 0) {
+                int n = Math.min(run, textLength - i);
+                if (out instanceof StringBuilder) {
+                    ((StringBuilder) out).append(runChars, runStart[id], n);
+                } else {
+                    out.append(CharBuffer.wrap(runChars, runStart[id], n));
+                }
+                i += n - 1;
+                // continues from the window that follows the run
+                if (n < run || runEnd[id] == -1) break;
+                CharDataMap.window(runEnd[id], ring, 0);
+                System.arraycopy(ring, 0, ring, windowLength, windowLength);
+                key = CharDataMap.key(ring, 0);
+                pos = 0;
+                continue;
+            }
+            char chr = sampler != null ? sampler.getRandomChar(id, randomGenerator)
+                    : getRandomChar(CharDataMap.get(id));
+            out.append(chr);
+            if (windowLength > 0) {
+                key = CharDataMap.roll(key, ring[pos], chr);
+                ring[pos] = ring[pos + windowLength] = chr;
+                if (++pos == windowLength) pos = 0;
+            }
+        }
+    }
+
+    // Returns the length of the forced run of the window with the given id, or
+    // 0 if the window has more than one successor. Finds the run, and the runs
+    // of the windows along it, if it was not found yet.
+    private int forcedRun(int id) {
+        if (runLength == null) {
+            int size = CharDataMap.size();
+            runStart = new int[size];
+            runLength = new int[size];
+            runEnd = new int[size];
+            runChars = new char[Math.max(size / 4, 16)];
+            runCharsSize = 0;
+        }
+        if (runLength[id] != 0 || CharDataMap.get(id).getSize() != 1) return runLength[id];
+        // walks the run in buf, the window followed by the run; the windows on
+        // the walk are marked with a length of -1 until it ends
+        char[] buf = new char[windowLength + MAX_RUN];
+        int[] path = new int[MAX_RUN];
+        CharDataMap.window(id, buf, 0);
+        long key = CharDataMap.key(buf, 0);
+        int current = id;
+        int length = 0;
+        while (true) {
+            path[length] = current;
+            runLength[current] = -1;
+            char chr = CharDataMap.get(current).getFirst().chr;
+            buf[windowLength + length] = chr;
+            if (windowLength > 0) key = CharDataMap.roll(key, buf[length], chr);
+            length++;
+            current = CharDataMap.find(key, buf, length);
+            if (current == -1 || length == MAX_RUN || runLength[current] != 0
+                    || CharDataMap.get(current).getSize() != 1) break;
+        }
+        if (runCharsSize + length > runChars.length) {
+            runChars = Arrays.copyOf(runChars, Math.max(2 * runChars.length, runCharsSize + length));
+        }
+        System.arraycopy(buf, windowLength, runChars, runCharsSize, length);
+        for (int k = 0; k < length; k++) {
+            runStart[path[k]] = runCharsSize + k;
+            runLength[path[k]] = length - k;
+            runEnd[path[k]] = current;
+        }
+        runCharsSize += length;
+        return length;
+    }
+
     /** Returns a string representing the map of this language model. */
 	public String toString() {
+		freeze();
+		// Lists the windows in the order of a HashMap<String, List>, as the model
+		// was originally stored in one.
+		HashMap<String, CharList> map = new HashMap<String, CharList>();
+		for (int id = 0; id < CharDataMap.size(); id++) {
+			map.put(CharDataMap.window(id), CharDataMap.get(id));
+		}
 		StringBuilder str = new StringBuilder();
-		for (String key : CharDataMap.keySet()) {
-			List keyProbs = CharDataMap.get(key);
+		for (String key : map.keySet()) {
+			CharList keyProbs = map.get(key);
 			str.append(key + " : " + keyProbs + "\n");
 		}
 		return str.toString();
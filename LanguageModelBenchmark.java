@@ -0,0 +1,677 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.random.RandomGenerator;
+
+/** Rough timing benchmarks for the language model.
+ *  Usage: java LanguageModelBenchmark <benchmark> [corpus] [windowLength] */
+public class LanguageModelBenchmark {
+
+    // The number of times each measurement is repeated; the fastest run is reported.
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        String benchmarkName = args[0];
+        String fileName = args.length > 1 ? args[1] : "originofspecies.txt";
+        int windowLength = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        switch (benchmarkName) {
+            case "trainParallel":
+                benchmarkTrainParallel(fileName, windowLength);
+                break;
+            case "memory":
+                benchmarkMemory();
+                break;
+            case "sampling":
+                benchmarkSampling(fileName, windowLength);
+                break;
+            case "load":
+                benchmarkLoad(fileName, windowLength);
+                break;
+            case "random":
+                benchmarkRandom(fileName, windowLength);
+                break;
+            case "trie":
+                benchmarkTrie(fileName);
+                break;
+            case "suffixArray":
+                benchmarkSuffixArray(fileName);
+                break;
+            case "memoryBudget":
+                benchmarkMemoryBudget(fileName, windowLength);
+                break;
+            case "sketch":
+                benchmarkSketch();
+                break;
+            case "listOrder":
+                benchmarkListOrder(fileName);
+                break;
+            case "listStorage":
+                benchmarkListStorage(fileName);
+                break;
+            case "tiers":
+                benchmarkTiers(fileName);
+                break;
+            case "forcedRuns":
+                benchmarkForcedRuns(fileName);
+                break;
+            case "symbols":
+                benchmarkSymbols(fileName);
+                break;
+            case "read":
+                benchmarkRead(fileName);
+                break;
+            case "mapped":
+                benchmarkMapped(fileName, windowLength);
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + benchmarkName);
+                break;
+        }
+    }
+
+    // Times trainParallel() on the given corpus with 1, 2, 4, ... worker threads,
+    // up to the number of available processors.
+    public static void benchmarkTrainParallel(String fileName, int windowLength) {
+        String corpus = new In(fileName).readAll();
+        int processors = Runtime.getRuntime().availableProcessors();
+        long base = 0;
+        for (int threads = 1; threads <= processors; threads = nextThreadCount(threads, processors)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                LanguageModel model = new LanguageModel(windowLength);
+                long start = System.nanoTime();
+                model.trainParallel(corpus, pool);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            if (threads == 1) base = best;
+            System.out.printf("trainParallel %s windowLength=%d threads=%d: %.1f ms (speedup %.2fx)%n",
+                    fileName, windowLength, threads, best / 1e6, (double) base / best);
+        }
+    }
+
+    // Measures the heap taken by a LanguageModel and by its FrozenModel, for both
+    // bundled corpora and a few window lengths.
+    public static void benchmarkMemory() {
+        String[] fileNames = {"originofspecies.txt", "shakespeareinlove.txt"};
+        int[] windowLengths = {2, 4, 7, 10};
+        for (String fileName : fileNames) {
+            for (int windowLength : windowLengths) {
+                long before = usedMemory();
+                LanguageModel model = new LanguageModel(windowLength);
+                model.train(fileName);
+                model.freeze();
+                long modelBytes = usedMemory() - before;
+                before = usedMemory();
+                FrozenModel frozen = new FrozenModel(model);
+                long frozenBytes = usedMemory() - before;
+                int windows = frozen.size();
+                System.out.printf("%s windowLength=%d windows=%d: LanguageModel %d KB (%.1f bytes/window),"
+                        + " FrozenModel %d KB (%.1f bytes/window, %.1f by count)%n",
+                        fileName, windowLength, windows, modelBytes / 1024, (double) modelBytes / windows,
+                        frozenBytes / 1024, (double) frozenBytes / windows,
+                        (double) frozen.sizeInBytes() / windows);
+            }
+        }
+    }
+
+    // Times generating text from a FrozenModel of the given corpus with each
+    // sampling, with and without compiled transitions.
+    public static void benchmarkSampling(String fileName, int windowLength) {
+        LanguageModel model = new LanguageModel(windowLength);
+        model.train(fileName);
+        String initialText = new In(fileName).readAll().substring(0, windowLength);
+        int textLength = 1 << 20;
+        for (Sampling sampling : Sampling.values()) {
+            for (boolean compiled : new boolean[] {false, true}) {
+                FrozenModel frozen = new FrozenModel(model, sampling, compiled);
+                long best = Long.MAX_VALUE;
+                long generated = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    Random random = new Random(run);
+                    long start = System.nanoTime();
+                    generated = frozen.generate(initialText, textLength, random).length() - windowLength;
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("generate %s windowLength=%d sampling=%s compiled=%b: %.1f ns/char%n",
+                        fileName, windowLength, sampling, compiled, (double) best / generated);
+            }
+        }
+    }
+
+    // Compares training a model from the corpus with loading a saved FrozenModel
+    // of it, each followed by generating a short text.
+    public static void benchmarkLoad(String fileName, int windowLength) {
+        try {
+            File file = File.createTempFile("model", ".bin");
+            file.deleteOnExit();
+            long start = System.nanoTime();
+            LanguageModel model = new LanguageModel(windowLength);
+            model.train(fileName);
+            String initialText = new In(fileName).readAll().substring(0, windowLength);
+            model.generate(initialText, 100);
+            long trainTime = System.nanoTime() - start;
+            new FrozenModel(model, Sampling.BINARY_SEARCH, true).save(file.getPath());
+            start = System.nanoTime();
+            FrozenModel loaded = FrozenModel.load(file.getPath());
+            loaded.generate(initialText, 100, new Random());
+            long loadTime = System.nanoTime() - start;
+            System.out.printf("%s windowLength=%d: train %.1f ms, load %.1f ms (%d KB file)%n",
+                    fileName, windowLength, trainTime / 1e6, loadTime / 1e6, file.length() / 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Times LanguageModel.generate() with random number generators of several algorithms.
+    public static void benchmarkRandom(String fileName, int windowLength) {
+        String[] algorithms = {"Random", "SplittableRandom", "L32X64MixRandom", "L64X128MixRandom",
+                "L128X256MixRandom", "Xoroshiro128PlusPlus", "Xoshiro256PlusPlus"};
+        String initialText = new In(fileName).readAll().substring(0, windowLength);
+        int textLength = 1 << 20;
+        for (String algorithm : algorithms) {
+            LanguageModel model = LanguageModel.of(windowLength, algorithm, 20);
+            model.train(fileName);
+            long best = Long.MAX_VALUE;
+            long generated = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                generated = model.generate(initialText, textLength).length() - windowLength;
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("generate %s windowLength=%d random=%s: %.1f ns/char%n",
+                    fileName, windowLength, algorithm, (double) best / generated);
+        }
+    }
+
+    // Measures the heap taken by the windows of the given corpus and their lists,
+    // stored in a HashMap with String keys, a ContextMap and a ContextTrie.
+    public static void benchmarkTrie(String fileName) {
+        String corpus = new In(fileName).readAll();
+        int[] windowLengths = {2, 4, 7, 10, 16};
+        for (int windowLength : windowLengths) {
+            long before = usedMemory();
+            HashMap<String, List> map = new HashMap<String, List>();
+            for (int i = 0; i + windowLength < corpus.length(); i++) {
+                String window = corpus.substring(i, i + windowLength);
+                List probs = map.get(window);
+                if (probs == null) {
+                    probs = new List();
+                    map.put(window, probs);
+                }
+                probs.update(corpus.charAt(i + windowLength));
+            }
+            long mapBytes = usedMemory() - before;
+            Reference.reachabilityFence(map);
+            map = null;
+            before = usedMemory();
+            LanguageModel model = new LanguageModel(windowLength);
+            model.train(fileName);
+            long contextMapBytes = usedMemory() - before;
+            Reference.reachabilityFence(model);
+            model = null;
+            before = usedMemory();
+            ContextTrie trie = new ContextTrie(windowLength);
+            trie.train(fileName);
+            long trieBytes = usedMemory() - before;
+            int windows = trie.size();
+            System.out.printf("%s windowLength=%d windows=%d nodes=%d: HashMap %d KB (%.1f bytes/window),"
+                    + " ContextMap %d KB (%.1f), ContextTrie %d KB (%.1f)%n",
+                    fileName, windowLength, windows, trie.nodeCount(),
+                    mapBytes / 1024, (double) mapBytes / windows,
+                    contextMapBytes / 1024, (double) contextMapBytes / windows,
+                    trieBytes / 1024, (double) trieBytes / windows);
+        }
+    }
+
+    // Compares the heap and generation time of a SuffixArrayModel of the given
+    // corpus, which serves all window lengths, with a LanguageModel per window length.
+    public static void benchmarkSuffixArray(String fileName) {
+        String corpus = new In(fileName).readAll();
+        long before = usedMemory();
+        long start = System.nanoTime();
+        SuffixArrayModel suffixArray = new SuffixArrayModel(corpus, 20);
+        long buildTime = System.nanoTime() - start;
+        long suffixArrayBytes = usedMemory() - before;
+        System.out.printf("%s SuffixArrayModel: %d KB (%.1f bytes/char), built in %.1f ms%n",
+                fileName, suffixArrayBytes / 1024, (double) suffixArrayBytes / corpus.length(), buildTime / 1e6);
+        int[] windowLengths = {2, 4, 7, 10, 16, 32};
+        int textLength = 1 << 16;
+        for (int windowLength : windowLengths) {
+            before = usedMemory();
+            LanguageModel model = new LanguageModel(windowLength);
+            model.train(fileName);
+            model.freeze();
+            long modelBytes = usedMemory() - before;
+            String initialText = corpus.substring(0, windowLength);
+            long modelBest = Long.MAX_VALUE;
+            long suffixArrayBest = Long.MAX_VALUE;
+            long modelGenerated = 0;
+            long suffixArrayGenerated = 0;
+            for (int run = 0; run < RUNS; run++) {
+                start = System.nanoTime();
+                modelGenerated = model.generate(initialText, textLength).length() - windowLength;
+                modelBest = Math.min(modelBest, System.nanoTime() - start);
+                start = System.nanoTime();
+                suffixArrayGenerated = suffixArray.generate(initialText, textLength, windowLength).length()
+                        - windowLength;
+                suffixArrayBest = Math.min(suffixArrayBest, System.nanoTime() - start);
+            }
+            System.out.printf("%s windowLength=%d: LanguageModel %d KB, %.1f ns/char;"
+                    + " SuffixArrayModel %.1f ns/char%n",
+                    fileName, windowLength, modelBytes / 1024, (double) modelBest / modelGenerated,
+                    (double) suffixArrayBest / suffixArrayGenerated);
+        }
+        Reference.reachabilityFence(suffixArray);
+    }
+
+    // Trains on the given corpus with memory budgets of fractions of the unpruned
+    // model's estimated size, and reports the heap, the training time and the
+    // pruned mass.
+    public static void benchmarkMemoryBudget(String fileName, int windowLength) {
+        LanguageModel full = new LanguageModel(windowLength);
+        full.train(fileName);
+        long fullSize = full.estimatedSize();
+        full = null;
+        double[] fractions = {1.0, 0.75, 0.5, 0.25, 0.1};
+        for (double fraction : fractions) {
+            long before = usedMemory();
+            long start = System.nanoTime();
+            LanguageModel model = new LanguageModel(windowLength);
+            model.setMemoryBudget((long) (fullSize * fraction));
+            model.train(fileName);
+            long trainTime = System.nanoTime() - start;
+            long modelBytes = usedMemory() - before;
+            System.out.printf("%s windowLength=%d budget=%d KB: heap %d KB, estimated %d KB, windows %d,"
+                    + " %.1f ms; %s%n",
+                    fileName, windowLength, (long) (fullSize * fraction) / 1024, modelBytes / 1024,
+                    model.estimatedSize() / 1024, model.CharDataMap.size(), trainTime / 1e6,
+                    model.getPruningStats());
+        }
+    }
+
+    // Measures the error of the counts of SketchModels of several widths against
+    // the exact counts of a LanguageModel, for both bundled corpora.
+    public static void benchmarkSketch() {
+        String[] fileNames = {"originofspecies.txt", "shakespeareinlove.txt"};
+        int[] windowLengths = {4, 7};
+        int[] widths = {1 << 16, 1 << 18, 1 << 20};
+        int depth = 4;
+        int contexts = 1 << 16;
+        for (String fileName : fileNames) {
+            for (int windowLength : windowLengths) {
+                LanguageModel model = new LanguageModel(windowLength);
+                model.train(fileName);
+                for (int width : widths) {
+                    long start = System.nanoTime();
+                    SketchModel sketch = new SketchModel(windowLength, width, depth, contexts, 20);
+                    sketch.train(fileName);
+                    long trainTime = System.nanoTime() - start;
+                    long pairs = 0;
+                    long exact = 0;
+                    long error = 0;
+                    double relativeError = 0;
+                    long mass = 0;
+                    long coveredMass = 0;
+                    for (int id = 0; id < model.CharDataMap.size(); id++) {
+                        String window = model.CharDataMap.window(id);
+                        boolean covered = sketch.contextCount(window) > 0;
+                        for (CharData cd : model.CharDataMap.get(id).toArray()) {
+                            int estimate = sketch.estimate(window, cd.chr);
+                            pairs++;
+                            if (estimate == cd.count) exact++;
+                            error += estimate - cd.count;
+                            relativeError += (double) (estimate - cd.count) / cd.count;
+                            mass += cd.count;
+                            if (covered) coveredMass += cd.count;
+                        }
+                    }
+                    System.out.printf("%s windowLength=%d width=%d depth=%d contexts=%d (%d KB): %d pairs,"
+                            + " %.1f%% exact, average error %.3f (%.1f%% relative), contexts cover %.1f%% of"
+                            + " the mass of %d windows, trained in %.1f ms%n",
+                            fileName, windowLength, width, depth, contexts, sketch.sizeInBytes() / 1024, pairs,
+                            100.0 * exact / pairs, (double) error / pairs, 100 * relativeError / pairs,
+                            100.0 * coveredMass / mass, model.CharDataMap.size(), trainTime / 1e6);
+                }
+            }
+        }
+    }
+
+    // Measures, for each ListOrder, the average number of list elements visited
+    // per update in training and per draw in generation (weighted by how often
+    // each window occurs), and times training and generating.
+    public static void benchmarkListOrder(String fileName) {
+        char[] corpus = new In(fileName).readAll().toCharArray();
+        int[] windowLengths = {1, 2, 4, 7};
+        int textLength = 1 << 20;
+        for (int windowLength : windowLengths) {
+            String initialText = new String(corpus, 0, windowLength);
+            for (ListOrder order : ListOrder.values()) {
+                ContextMap map = new ContextMap(windowLength, order);
+                long updateProbes = 0;
+                for (int i = 0; i + windowLength < corpus.length; i++) {
+                    CharList probs = map.get(map.add(map.key(corpus, i), corpus, i));
+                    int index = probs.indexOf(corpus[i + windowLength]);
+                    updateProbes += index == -1 ? probs.getSize() : index + 1;
+                    probs.update(corpus[i + windowLength]);
+                }
+                long drawProbes = 0;
+                long mass = 0;
+                for (int id = 0; id < map.size(); id++) {
+                    CharData[] successors = map.get(id).toArray();
+                    for (int i = 0; i < successors.length; i++) {
+                        drawProbes += (long) (i + 1) * successors[i].count;
+                        mass += successors[i].count;
+                    }
+                }
+                long trainBest = Long.MAX_VALUE;
+                long generateBest = Long.MAX_VALUE;
+                long generated = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    LanguageModel model = new LanguageModel(windowLength, 20);
+                    model.setListOrder(order);
+                    long start = System.nanoTime();
+                    model.train(fileName);
+                    trainBest = Math.min(trainBest, System.nanoTime() - start);
+                    model.freeze();
+                    start = System.nanoTime();
+                    generated = model.generate(initialText, textLength).length() - windowLength;
+                    generateBest = Math.min(generateBest, System.nanoTime() - start);
+                }
+                System.out.printf("%s windowLength=%d order=%s: %.2f probes/update, %.2f probes/draw;"
+                        + " train %.1f ms, generate %.1f ns/char%n",
+                        fileName, windowLength, order, (double) updateProbes / (corpus.length - windowLength),
+                        (double) drawProbes / mass, trainBest / 1e6, (double) generateBest / generated);
+            }
+        }
+    }
+
+    // Measures the heap, training time and generation time of a model with each
+    // ListStorage, at a few window lengths.
+    public static void benchmarkListStorage(String fileName) {
+        String initialText = new In(fileName).readAll();
+        int[] windowLengths = {2, 4, 7};
+        int textLength = 1 << 20;
+        for (int windowLength : windowLengths) {
+            for (ListStorage storage : ListStorage.values()) {
+                long trainBest = Long.MAX_VALUE;
+                long generateBest = Long.MAX_VALUE;
+                long generated = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    LanguageModel model = new LanguageModel(windowLength, 20);
+                    model.setListStorage(storage);
+                    long start = System.nanoTime();
+                    model.train(fileName);
+                    trainBest = Math.min(trainBest, System.nanoTime() - start);
+                    model.freeze();
+                    start = System.nanoTime();
+                    generated = model.generate(initialText.substring(0, windowLength), textLength).length()
+                            - windowLength;
+                    generateBest = Math.min(generateBest, System.nanoTime() - start);
+                }
+                long before = usedMemory();
+                LanguageModel model = new LanguageModel(windowLength);
+                model.setListStorage(storage);
+                model.train(fileName);
+                model.freeze();
+                long modelBytes = usedMemory() - before;
+                Reference.reachabilityFence(model);
+                System.out.printf("%s windowLength=%d storage=%s: %d KB, train %.1f ms, generate %.1f ns/char%n",
+                        fileName, windowLength, storage, modelBytes / 1024, trainBest / 1e6,
+                        (double) generateBest / generated);
+            }
+        }
+    }
+
+    // Times generation with and without forced runs at a few window lengths,
+    // and counts the random numbers drawn per generated character. Generates
+    // texts of 4K characters from windows spread over the corpus, so that
+    // neither setting spends its time in a single loop of the text.
+    public static void benchmarkForcedRuns(String fileName) {
+        String corpus = new In(fileName).readAll();
+        int[] windowLengths = {4, 7, 10};
+        int texts = 256;
+        int textLength = 1 << 12;
+        for (int windowLength : windowLengths) {
+            for (boolean forcedRuns : new boolean[] {false, true}) {
+                long[] draws = new long[1];
+                Random random = new Random(20);
+                // counts the longs drawn, one per random double
+                RandomGenerator counting = new RandomGenerator() {
+                    public long nextLong() {
+                        draws[0]++;
+                        return random.nextLong();
+                    }
+                };
+                LanguageModel model = new LanguageModel(windowLength, counting);
+                model.setForcedRuns(forcedRuns);
+                model.train(fileName);
+                long best = Long.MAX_VALUE;
+                long generated = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    draws[0] = 0;
+                    generated = 0;
+                    long start = System.nanoTime();
+                    for (int t = 0; t < texts; t++) {
+                        int from = (int) ((long) t * (corpus.length() - windowLength) / texts);
+                        generated += model.generate(corpus.substring(from, from + windowLength), textLength).length()
+                                - windowLength;
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%s windowLength=%d forcedRuns=%b: %d chars, %.1f ns/char, %.3f draws/char%n",
+                        fileName, windowLength, forcedRuns, generated, (double) best / generated,
+                        (double) draws[0] / generated);
+            }
+        }
+    }
+
+    // Measures the heap and training time of a LanguageModel and of a
+    // SymbolModel of the same corpus, and their generation times, at a few
+    // window lengths.
+    public static void benchmarkSymbols(String fileName) {
+        String corpus = new In(fileName).readAll();
+        int[] windowLengths = {2, 4, 7, 10};
+        int textLength = 1 << 20;
+        for (int windowLength : windowLengths) {
+            String initialText = corpus.substring(0, windowLength);
+            long trainBest = Long.MAX_VALUE;
+            long symbolTrainBest = Long.MAX_VALUE;
+            long generateBest = Long.MAX_VALUE;
+            long symbolGenerateBest = Long.MAX_VALUE;
+            long generated = 0;
+            long symbolGenerated = 0;
+            for (int run = 0; run < RUNS; run++) {
+                LanguageModel model = new LanguageModel(windowLength, 20);
+                long start = System.nanoTime();
+                model.train(fileName);
+                trainBest = Math.min(trainBest, System.nanoTime() - start);
+                model.freeze();
+                start = System.nanoTime();
+                generated = model.generate(initialText, textLength).length() - windowLength;
+                generateBest = Math.min(generateBest, System.nanoTime() - start);
+                SymbolModel symbols = new SymbolModel(windowLength, 20);
+                start = System.nanoTime();
+                symbols.train(fileName);
+                symbolTrainBest = Math.min(symbolTrainBest, System.nanoTime() - start);
+                start = System.nanoTime();
+                symbolGenerated = symbols.generate(initialText, textLength).length() - windowLength;
+                symbolGenerateBest = Math.min(symbolGenerateBest, System.nanoTime() - start);
+            }
+            long before = usedMemory();
+            LanguageModel model = new LanguageModel(windowLength);
+            model.train(fileName);
+            model.freeze();
+            long modelBytes = usedMemory() - before;
+            Reference.reachabilityFence(model);
+            before = usedMemory();
+            SymbolModel symbols = new SymbolModel(windowLength, 20);
+            symbols.train(fileName);
+            long symbolBytes = usedMemory() - before;
+            Reference.reachabilityFence(symbols);
+            System.out.printf("%s windowLength=%d: LanguageModel %d KB, train %.1f ms, generate %.1f ns/char;"
+                    + " SymbolModel (%d symbols, %d bits, %s, %d dense) %d KB, train %.1f ms, generate %.1f ns/char%n",
+                    fileName, windowLength, modelBytes / 1024, trainBest / 1e6, (double) generateBest / generated,
+                    symbols.getAlphabetSize(), symbols.getBitsPerSymbol(), symbols.isExact() ? "exact" : "hashed",
+                    symbols.denseWindows(), symbolBytes / 1024, symbolTrainBest / 1e6,
+                    (double) symbolGenerateBest / symbolGenerated);
+        }
+    }
+
+    // Generates a corpus of 3 GB in the temporary directory by repeating the
+    // given one (unless it is there already). Times reading all of it through
+    // In and through a MappedCorpus, then training on its first 32 MB as a
+    // slice of the MappedCorpus, reporting the heap in use after each.
+    public static void benchmarkMapped(String fileName, int windowLength) {
+        long size = 3L << 30;
+        File file = new File(System.getProperty("java.io.tmpdir"), "corpus-3GB.txt");
+        try {
+            if (file.length() != size) {
+                byte[] text = Files.readAllBytes(new File(fileName).toPath());
+                try (FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (long written = 0; written < size; ) {
+                        int n = (int) Math.min(text.length, size - written);
+                        written += channel.write(ByteBuffer.wrap(text, 0, n));
+                    }
+                }
+            }
+            char[] buf = new char[1 << 16];
+            for (int run = 0; run < 2; run++) {
+                long before = usedMemory();
+                long start = System.nanoTime();
+                In in = new In(file);
+                long chars = 0;
+                int n;
+                while ((n = in.read(buf, 0, buf.length)) != -1) chars += n;
+                in.close();
+                long time = System.nanoTime() - start;
+                System.out.printf("%s read In: %d chars, %.1f s, %.0f MB/s, heap %d KB%n",
+                        file, chars, time / 1e9, size / (time / 1e9) / (1 << 20), (usedMemory() - before) / 1024);
+                before = usedMemory();
+                start = System.nanoTime();
+                MappedCorpus corpus = MappedCorpus.open(file.getPath());
+                for (long from = 0; from < corpus.size(); from += buf.length) {
+                    corpus.getChars(from, buf, 0, (int) Math.min(buf.length, corpus.size() - from));
+                }
+                time = System.nanoTime() - start;
+                System.out.printf("%s read MappedCorpus: %d chars, %.1f s, %.0f MB/s, heap %d KB%n",
+                        file, corpus.size(), time / 1e9, size / (time / 1e9) / (1 << 20),
+                        (usedMemory() - before) / 1024);
+            }
+            long slice = 1L << 25;
+            long before = usedMemory();
+            LanguageModel model = new LanguageModel(windowLength);
+            long start = System.nanoTime();
+            model.train(MappedCorpus.open(file.getPath()).slice(0, slice));
+            long time = System.nanoTime() - start;
+            long bytes = usedMemory() - before;
+            Reference.reachabilityFence(model);
+            System.out.printf("%s windowLength=%d train on %d MB of MappedCorpus: %.1f s, %.1f MB/s, heap %d KB%n",
+                    file, windowLength, slice >> 20, time / 1e9, slice / (time / 1e9) / (1 << 20), bytes / 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Times reading the whole corpus through a Scanner, as In did, and through
+    // the file channel path of In: with readAll(), with read() into a buffer,
+    // and with chunks().
+    public static void benchmarkRead(String fileName) {
+        long bytes = new File(fileName).length();
+        String[] ways = {"Scanner readAll", "Scanner read", "channel readAll", "channel read", "channel chunks"};
+        for (String way : ways) {
+            long best = Long.MAX_VALUE;
+            long chars = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                chars = read(fileName, way);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%s %s: %d chars, %.1f ms, %.0f MB/s%n",
+                    fileName, way, chars, best / 1e6, bytes / (best / 1e9) / (1 << 20));
+        }
+    }
+
+    // Reads the given file in the given way; returns the number of characters read.
+    private static long read(String fileName, String way) {
+        In in;
+        if (way.startsWith("Scanner")) {
+            try {
+                in = new In(new Scanner(new BufferedInputStream(
+                        new FileInputStream(fileName)), "UTF-8"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            in = new In(fileName);
+        }
+        long chars = 0;
+        if (way.endsWith("readAll")) {
+            chars = in.readAll().length();
+        } else if (way.endsWith("chunks")) {
+            for (Iterator<CharBuffer> it = in.chunks(1 << 16); it.hasNext(); ) {
+                chars += it.next().remaining();
+            }
+        } else {
+            char[] buf = new char[1 << 16];
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) != -1) chars += n;
+        }
+        in.close();
+        return chars;
+    }
+
+    // Prints how many windows of a TIERED model are in each tier, after training
+    // and freezing (which moves hot lists to DENSE), at a few window lengths.
+    public static void benchmarkTiers(String fileName) {
+        int[] windowLengths = {2, 4, 7, 10};
+        for (int windowLength : windowLengths) {
+            LanguageModel model = new LanguageModel(windowLength, 20);
+            model.setListStorage(ListStorage.TIERED);
+            model.train(fileName);
+            model.freeze();
+            System.out.printf("%s windowLength=%d: %d windows; %s%n",
+                    fileName, windowLength, model.CharDataMap.size(), tierCounts(model));
+        }
+    }
+
+    // Returns the number and percentage of the windows of a model in each tier.
+    private static String tierCounts(LanguageModel model) {
+        StringBuilder str = new StringBuilder();
+        for (SuccessorTier tier : SuccessorTier.values()) {
+            int count = model.getTierCount(tier);
+            if (str.length() > 0) str.append(", ");
+            str.append(String.format("%s %d (%.1f%%)", tier, count, 100.0 * count / model.CharDataMap.size()));
+        }
+        return str.toString();
+    }
+
+    // Returns the number of bytes in use on the heap, after collecting garbage.
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Doubles the thread count, making sure the last step is exactly the number of processors.
+    private static int nextThreadCount(int threads, int processors) {
+        if (threads == processors) return processors + 1;
+        return Math.min(threads * 2, processors);
+    }
+}
@@ -1,6 +1,28 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.random.RandomGenerator;
 
 public class LanguageModelTester {
         public static void main(String[] args) {
@@ -19,11 +41,123 @@ public class LanguageModelTester {
             case "generate":
                 result = testGenerate();
                 break;
+            case "trainParallel":
+                result = testTrainParallel();
+                break;
+            case "trainCloses":
+                result = testTrainCloses();
+                break;
+            case "frozenModel":
+                result = testFrozenModel();
+                break;
+            case "aliasSampling":
+                result = testSampling(Sampling.ALIAS);
+                break;
+            case "binarySearchSampling":
+                result = testSampling(Sampling.BINARY_SEARCH);
+                break;
+            case "modelSampling":
+                result = testModelSampling(Sampling.BINARY_SEARCH);
+                break;
+            case "modelAliasSampling":
+                result = testModelSampling(Sampling.ALIAS);
+                break;
+            case "selectRounding":
+                result = testSelectRounding();
+                break;
+            case "randomGenerator":
+                result = testRandomGenerator();
+                break;
+            case "saveLoad":
+                result = testSaveLoad();
+                break;
+            case "loadCorrupt":
+                result = testLoadCorrupt();
+                break;
+            case "generateAll":
+                result = testGenerateAll();
+                break;
+            case "liveModel":
+                result = testLiveModel();
+                break;
+            case "backoff":
+                result = testBackoff();
+                break;
+            case "contextTrie":
+                result = testContextTrie();
+                break;
+            case "suffixArray":
+                result = testSuffixArray();
+                break;
+            case "memoryBudget":
+                result = testMemoryBudget();
+                break;
+            case "sketch":
+                result = testSketch();
+                break;
+            case "listOrder":
+                result = testListOrder();
+                break;
+            case "parallelListOrder":
+                result = testParallelListOrder();
+                break;
+            case "charLists":
+                result = testCharLists();
+                break;
+            case "arrayCharList":
+                result = testArrayCharList();
+                break;
+            case "tieredCharList":
+                result = testTieredCharList();
+                break;
+            case "forcedRuns":
+                result = testForcedRuns();
+                break;
+            case "copyForcedRuns":
+                result = testCopyForcedRuns();
+                break;
+            case "symbolModel":
+                result = testSymbolModel();
+                break;
+            case "inFastPath":
+                result = testInFastPath();
+                break;
+            case "mappedCorpus":
+                result = testMappedCorpus();
+                break;
             case "all":
                 result = testCalculateProbabilities();
                 result = result && testGetRandomChar();
                 result = result && testTrain();
                 result = result && testGenerate();
+                result = result && testTrainParallel();
+                result = result && testTrainCloses();
+                result = result && testFrozenModel();
+                result = result && testSampling(Sampling.ALIAS);
+                result = result && testSampling(Sampling.BINARY_SEARCH);
+                result = result && testModelSampling(Sampling.BINARY_SEARCH);
+                result = result && testModelSampling(Sampling.ALIAS);
+                result = result && testSelectRounding();
+                result = result && testRandomGenerator();
+                result = result && testSaveLoad();
+                result = result && testLoadCorrupt();
+                result = result && testGenerateAll();
+                result = result && testLiveModel();
+                result = result && testBackoff();
+                result = result && testContextTrie();
+                result = result && testSuffixArray();
+                result = result && testMemoryBudget();
+                result = result && testSketch();
+                result = result && testListOrder();
+                result = result && testParallelListOrder();
+                result = result && testCharLists();
+                result = result && testArrayCharList();
+                result = result && testTieredCharList();
+                result = result && testForcedRuns();
+                result = result && testCopyForcedRuns();
+                result = result && testSymbolModel();
+                result = result && testInFastPath();
+                result = result && testMappedCorpus();
                 break;
             default:
                 break;
@@ -166,6 +300,1277 @@ public class LanguageModelTester {
         return res;
     }
 
+    // Test method for the trainParallel() method
+    public static boolean testTrainParallel() {
+        boolean result = true;
+        int [] windowLengths = {1, 2, 7};
+        for (int i = 0; i < windowLengths.length; i++) {
+            LanguageModel sequential = new LanguageModel(windowLengths[i], 20);
+            sequential.train("originofspecies.txt");
+            LanguageModel parallel = new LanguageModel(windowLengths[i], 20);
+            parallel.trainParallel("originofspecies.txt");
+            boolean res = sequential.toString().equals(parallel.toString())
+                    && sequential.generate("Natural", 500).equals(parallel.generate("Natural", 500));
+            if (!res) {
+                System.out.println("TrainParallel Test failed with windowLength = " + windowLengths[i]);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Tests that training from a file closes it: the number of open file
+    // descriptors of this process (where /proc lists them) is the same after
+    // each training as before it. Each kind of training runs once first, to
+    // load its classes.
+    public static boolean testTrainCloses() {
+        File fds = new File("/proc/self/fd");
+        if (!fds.isDirectory()) return true;
+        String fileName = "shakespeareinlove.txt";
+        Runnable [] trainings = {
+            () -> new LanguageModel(2, 20).train(fileName),
+            () -> new LanguageModel(2, 20).trainParallel(fileName),
+            () -> new BackoffModel(2, 20).train(fileName),
+            () -> new SketchModel(2, 1 << 10, 4, 1 << 10, 20).train(fileName),
+            () -> new ContextTrie(2).train(fileName),
+            () -> new SymbolModel(2, 20).train(fileName)
+        };
+        boolean result = true;
+        for (int i = 0; i < trainings.length; i++) {
+            trainings[i].run();
+            int before = fds.list().length;
+            trainings[i].run();
+            int after = fds.list().length;
+            if (after > before) {
+                System.out.println("TrainCloses Test failed for training " + i + ": "
+                        + (after - before) + " more open files");
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    // Test method for the FrozenModel class
+    public static boolean testFrozenModel() {
+        boolean result = true;
+        int [] windowLengths = {2, 4, 7};
+        for (int i = 0; i < windowLengths.length; i++) {
+            LanguageModel model = new LanguageModel(windowLengths[i], 20);
+            model.train("originofspecies.txt");
+            FrozenModel frozen = new FrozenModel(model);
+            FrozenModel compiled = new FrozenModel(model, Sampling.SCAN, true);
+            String expected = model.generate("Natural", 1000);
+            String actual = frozen.generate("Natural", 1000, new Random(20));
+            String actualCompiled = compiled.generate("Natural", 1000, new Random(20));
+            boolean res = expected.equals(actual) && expected.equals(actualCompiled);
+            if (!res) {
+                System.out.println("Expected: " + expected);
+                System.out.println("Actual: " + actual);
+                System.out.println("Actual (compiled): " + actualCompiled);
+                System.out.println("FrozenModel Test failed with windowLength = " + windowLengths[i]);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Tests that a FrozenModel with the given sampling draws the successors of its
+    // widest windows with the right distribution: a chi-squared test of the counts
+    // of 200000 draws per window against the trained counts, at significance 0.001.
+    public static boolean testSampling(Sampling sampling) {
+        boolean result = true;
+        int draws = 200000;
+        LanguageModel model = new LanguageModel(1, 20);
+        model.train("originofspecies.txt");
+        FrozenModel frozen = new FrozenModel(model, sampling);
+        Random random = new Random(20);
+        String [] windows = {"e", " ", "t", "a"};
+        for (int i = 0; i < windows.length; i++) {
+            CharList list = model.CharDataMap.get(windows[i].toCharArray(), 0);
+            int id = frozen.find(windows[i].toCharArray(), 0);
+            int [] observed = new int[Character.MAX_VALUE + 1];
+            for (int j = 0; j < draws; j++) {
+                observed[frozen.getRandomChar(id, random)]++;
+            }
+            int total = 0;
+            CharData [] arr = list.toArray();
+            for (int j = 0; j < arr.length; j++) {
+                total += arr[j].count;
+            }
+            double chiSquared = 0;
+            for (int j = 0; j < arr.length; j++) {
+                double expected = (double) draws * arr[j].count / total;
+                double diff = observed[arr[j].chr] - expected;
+                chiSquared += diff * diff / expected;
+                observed[arr[j].chr] = 0;
+            }
+            boolean res = true;
+            for (int j = 0; j < observed.length; j++) {
+                res = res && observed[j] == 0;
+            }
+            // Wilson-Hilferty approximation of the 0.999 quantile of chi-squared
+            int df = arr.length - 1;
+            double critical = df * Math.pow(1 - 2.0 / (9 * df) + 3.09 * Math.sqrt(2.0 / (9 * df)), 3);
+            res = res && chiSquared < critical;
+            if (!res) {
+                System.out.println(sampling + " Sampling Test failed for window \"" + windows[i]
+                        + "\": chi-squared " + chiSquared + " with " + df + " degrees of freedom");
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Tests that a LanguageModel with the given sampling generates the text its
+    // FrozenModel with that sampling generates from the same seed, and that
+    // training it further rebuilds its sampler.
+    public static boolean testModelSampling(Sampling sampling) {
+        // two generators in step: one draws for the model, one for its frozen copy
+        Random random = new Random(20);
+        Random reference = new Random(20);
+        LanguageModel model = new LanguageModel(3, random);
+        model.setSampling(sampling);
+        model.train("originofspecies.txt");
+        LanguageModel copy = new LanguageModel(3);
+        copy.train("originofspecies.txt");
+        boolean result = model.generate("the", 2000)
+                .equals(new FrozenModel(copy, sampling).generate("the", 2000, reference));
+        model.train("shakespeareinlove.txt");
+        copy.train("shakespeareinlove.txt");
+        result = result && model.generate("the", 2000)
+                .equals(new FrozenModel(copy, sampling).generate("the", 2000, reference));
+        if (!result) {
+            System.out.println(sampling + " ModelSampling Test failed");
+        }
+        return result;
+    }
+
+    // Tests that a draw above the last cumulative probability, which rounding
+    // leaves below 1, returns the last character rather than 0, in every list
+    // storage, in generation and in a FrozenModel.
+    public static boolean testSelectRounding() {
+        boolean result = true;
+        // seven successors of a seventh each: the last cumulative probability is
+        // 0.9999999999999998, and this generator draws 0.9999999999999999
+        RandomGenerator top = () -> -1L;
+        String corpus = "xaxbxcxdxexfxgx";
+        for (ListStorage storage : ListStorage.values()) {
+            LanguageModel model = new LanguageModel(1, top);
+            model.setListStorage(storage);
+            model.trainParallel(corpus, ForkJoinPool.commonPool());
+            CharData[] successors = model.CharDataMap.get("x".toCharArray(), 0).toArray();
+            String expected = "x" + successors[successors.length - 1].chr;
+            boolean res = successors.length == 7 && model.generate("x", 1).equals(expected)
+                    && new FrozenModel(model).generate("x", 1, top).equals(expected);
+            if (!res) {
+                System.out.println("SelectRounding Test failed for " + storage);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the save() and load() methods of FrozenModel
+    public static boolean testSaveLoad() {
+        boolean result = true;
+        int [] windowLengths = {2, 7};
+        for (int i = 0; i < windowLengths.length; i++) {
+            LanguageModel model = new LanguageModel(windowLengths[i], 20);
+            model.train("originofspecies.txt");
+            for (Sampling sampling : Sampling.values()) {
+                boolean res = true;
+                try {
+                    FrozenModel frozen = new FrozenModel(model, sampling, sampling == Sampling.ALIAS);
+                    File file = File.createTempFile("model", ".bin");
+                    file.deleteOnExit();
+                    frozen.save(file.getPath());
+                    FrozenModel loaded = FrozenModel.load(file.getPath());
+                    res = loaded.size() == frozen.size()
+                            && loaded.getAlphabet().equals(frozen.getAlphabet())
+                            && loaded.sizeInBytes() == frozen.sizeInBytes()
+                            && loaded.generate("Natural", 1000, new Random(20))
+                                    .equals(frozen.generate("Natural", 1000, new Random(20)));
+                } catch (Exception e) {
+                    res = false;
+                }
+                if (!res) {
+                    System.out.println("SaveLoad Test failed with windowLength = " + windowLengths[i]
+                            + ", sampling = " + sampling);
+                }
+                result = result && res;
+            }
+        }
+        return result;
+    }
+
+    // Tests that loading a corrupt or truncated model file throws an IOException
+    public static boolean testLoadCorrupt() {
+        boolean result = true;
+        try {
+            LanguageModel model = new LanguageModel(2, 20);
+            model.train("shakespeareinlove.txt");
+            File file = File.createTempFile("model", ".bin");
+            file.deleteOnExit();
+            new FrozenModel(model).save(file.getPath());
+            byte[] saved = Files.readAllBytes(file.toPath());
+            ByteBuffer header = ByteBuffer.wrap(saved).order(ByteOrder.LITTLE_ENDIAN);
+            int size = header.getInt(12);
+            int capacity = header.getInt(20);
+            // the offsets follow the keys, the slots and the windows
+            int offsets = align(align(align(40 + 8 * capacity) + 4 * capacity) + 2 * 2 * size);
+            // {position of an int to overwrite, its new value}; -1 truncates the file
+            int[][] corruptions = {
+                {8, -1}, {12, -5}, {12, Integer.MAX_VALUE}, {16, -1}, {16, Integer.MAX_VALUE},
+                {20, 3}, {20, size}, {24, -1}, {24, 70000}, {28, 99}, {28, -1}, {32, 7},
+                {offsets, 5}, {offsets + 4 * size, 0}, {-1, 1}, {-1, saved.length - 1}, {-1, 39}
+            };
+            for (int[] corruption : corruptions) {
+                byte[] bytes = saved.clone();
+                if (corruption[0] == -1) {
+                    bytes = Arrays.copyOf(bytes, corruption[1]);
+                } else {
+                    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(corruption[0], corruption[1]);
+                }
+                result = result && loadFails(file, bytes, Arrays.toString(corruption));
+            }
+            // and one byte too many
+            result = result && loadFails(file, Arrays.copyOf(saved, saved.length + 1), "one byte too many");
+            // bad section contents, in a compiled model with alias tables
+            new FrozenModel(model, Sampling.ALIAS, true).save(file.getPath());
+            saved = Files.readAllBytes(file.toPath());
+            header = ByteBuffer.wrap(saved).order(ByteOrder.LITTLE_ENDIAN);
+            int successors = header.getInt(16);
+            int slots = align(40 + 8 * capacity);
+            int cumulative = align(align(offsets + 4 * (size + 1)) + 2 * successors);
+            int aliasProbability = align(align(cumulative + 4 * successors) + 2 * header.getInt(24));
+            int alias = align(aliasProbability + 8 * successors);
+            int next = align(alias + 4 * successors);
+            int used = slots;
+            while (header.getInt(used) == 0) used += 4;
+            int [][] contents = {
+                {used, size + 1}, {used, -3}, {cumulative, 0}, {cumulative + 4, -1},
+                {aliasProbability + 4, 0x7FF80000}, {alias, successors}, {alias, -1},
+                {next, size}, {next, -2}
+            };
+            for (int[] corruption : contents) {
+                byte[] bytes = saved.clone();
+                ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(corruption[0], corruption[1]);
+                result = result && loadFails(file, bytes, Arrays.toString(corruption));
+            }
+            // a full table, whose lookups would never end
+            byte[] bytes = saved.clone();
+            ByteBuffer full = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            for (int slot = 0; slot < capacity; slot++) {
+                if (full.getInt(slots + 4 * slot) == 0) full.putInt(slots + 4 * slot, 1);
+            }
+            result = result && loadFails(file, bytes, "a full table");
+        } catch (IOException e) {
+            result = false;
+        }
+        if (!result) {
+            System.out.println("LoadCorrupt Test failed");
+        }
+        return result;
+    }
+
+    // Writes the given bytes to the given file, and checks that loading it throws
+    // an IOException.
+    private static boolean loadFails(File file, byte[] bytes, String corruption) throws IOException {
+        Files.write(file.toPath(), bytes);
+        try {
+            FrozenModel.load(file.getPath());
+        } catch (IOException e) {
+            return true;
+        } catch (RuntimeException e) {
+            // not an IOException
+        }
+        System.out.println("LoadCorrupt Test failed: no IOException for " + corruption);
+        return false;
+    }
+
+    // Rounds the given position up to a multiple of 8, as the sections of a model file are.
+    private static int align(int pos) {
+        return (pos + 7) & ~7;
+    }
+
+    // Test method for the generateAll() method of FrozenModel
+    public static boolean testGenerateAll() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        FrozenModel frozen = new FrozenModel(model);
+        String [] initialTexts = {"Natural", "The ori", "Species", "variety"};
+        GenerationRequest [] requests = new GenerationRequest[200];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new GenerationRequest(initialTexts[i % initialTexts.length], 300, i);
+        }
+        String [] first = frozen.generateAll(requests);
+        String [] second = frozen.generateAll(requests);
+        boolean result = true;
+        for (int i = 0; i < requests.length; i++) {
+            String expected = frozen.generate(requests[i].getInitialText(), requests[i].getTextLength(),
+                    new SplittableRandom(requests[i].getSeed()));
+            boolean res = expected.equals(first[i]) && expected.equals(second[i]);
+            if (!res) {
+                System.out.println("Expected: " + expected);
+                System.out.println("Actual: " + first[i]);
+                System.out.println("GenerateAll Test failed for request " + requests[i]);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the choice of random number generator: a model given a
+    // generator, or an algorithm and a seed, generates reproducibly, and the
+    // generators split from a model are reproducible and independent.
+    public static boolean testRandomGenerator() {
+        LanguageModel bySeed = new LanguageModel(4, 20);
+        LanguageModel byGenerator = new LanguageModel(4, new Random(20));
+        LanguageModel first = LanguageModel.of(4, "L64X128MixRandom", 42);
+        LanguageModel second = LanguageModel.of(4, "L64X128MixRandom", 42);
+        LanguageModel other = LanguageModel.of(4, "L64X128MixRandom", 43);
+        LanguageModel [] models = {bySeed, byGenerator, first, second, other};
+        for (LanguageModel model : models) {
+            model.train("shakespeareinlove.txt");
+        }
+        boolean result = bySeed.generate("The ", 500).equals(byGenerator.generate("The ", 500));
+        String text = first.generate("The ", 500);
+        result = result && text.equals(second.generate("The ", 500))
+                && !text.equals(other.generate("The ", 500));
+        if (!result) {
+            System.out.println("RandomGenerator Test failed: generated texts differ");
+        }
+
+        RandomGenerator [] split = first.splitGenerator(3);
+        RandomGenerator [] again = second.splitGenerator(3);
+        long [][] draws = new long[split.length][];
+        for (int i = 0; i < split.length; i++) {
+            draws[i] = split[i].longs(16).toArray();
+            if (!Arrays.equals(draws[i], again[i].longs(16).toArray())) {
+                System.out.println("RandomGenerator Test failed: split " + i + " is not reproducible");
+                result = false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (Arrays.equals(draws[i], draws[j])) {
+                    System.out.println("RandomGenerator Test failed: splits " + j + " and " + i + " are equal");
+                    result = false;
+                }
+            }
+        }
+
+        try {
+            LanguageModel.of(4, "NoSuchRandom", 42);
+            System.out.println("RandomGenerator Test failed: unknown algorithm accepted");
+            result = false;
+        } catch (IllegalArgumentException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("NoSuchRandom")) {
+                System.out.println("RandomGenerator Test failed: unclear message " + e.getMessage());
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    // Test method for the LiveModel class: readers that run while the model is
+    // trained further must see either the old model or the new one.
+    public static boolean testLiveModel() {
+        LanguageModel model = new LanguageModel(4, 20);
+        model.train("shakespeareinlove.txt");
+        LanguageModel expectedModel = new LanguageModel(4, 20);
+        expectedModel.train("shakespeareinlove.txt");
+        expectedModel.train("originofspecies.txt");
+        String before = new FrozenModel(model).generate("The ", 500, new Random(20));
+        String after = new FrozenModel(expectedModel).generate("The ", 500, new Random(20));
+
+        boolean result;
+        try (LiveModel live = new LiveModel(model, Sampling.SCAN, false)) {
+            FrozenModel old = live.snapshot();
+            boolean [] res = {true};
+            AtomicBoolean done = new AtomicBoolean(false);
+            Thread reader = Thread.ofVirtual().start(() -> {
+                while (!done.get()) {
+                    String text = live.generate("The ", 500, new Random(20));
+                    if (!text.equals(before) && !text.equals(after)) {
+                        res[0] = false;
+                    }
+                }
+            });
+            FrozenModel next = live.trainMore("originofspecies.txt").join();
+            done.set(true);
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                res[0] = false;
+            }
+            result = res[0] && next == live.snapshot()
+                    && old.generate("The ", 500, new Random(20)).equals(before)
+                    && live.generate("The ", 500, new Random(20)).equals(after);
+        }
+        // retraining keeps the settings of the model: its list order and memory budget
+        LanguageModel configured = new LanguageModel(4, 20);
+        configured.setListOrder(ListOrder.BY_COUNT);
+        configured.setListStorage(ListStorage.TIERED);
+        configured.setMemoryBudget(1 << 20);
+        LanguageModel expectedRetrained = configured.untrainedCopy(new Random(20));
+        configured.train("shakespeareinlove.txt");
+        expectedRetrained.train("originofspecies.txt");
+        LanguageModel plain = new LanguageModel(4, 20);
+        plain.train("originofspecies.txt");
+        String retrained = new FrozenModel(expectedRetrained).generate("The ", 500, new Random(20));
+        try (LiveModel live = new LiveModel(configured, Sampling.SCAN, false)) {
+            live.retrain("originofspecies.txt").join();
+            result = result && live.generate("The ", 500, new Random(20)).equals(retrained)
+                    && !retrained.equals(new FrozenModel(plain).generate("The ", 500, new Random(20)));
+        }
+        // close() waits for the training requested before it, then rejects more
+        LiveModel live = new LiveModel(new LanguageModel(4, 20), Sampling.SCAN, false);
+        CompletableFuture<FrozenModel> pending = live.retrain("shakespeareinlove.txt");
+        live.close();
+        result = result && pending.isDone() && live.snapshot() == pending.join();
+        try {
+            live.trainMore("originofspecies.txt");
+            result = false;
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        if (!result) {
+            System.out.println("LiveModel Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the BackoffModel class
+    public static boolean testBackoff() {
+        BackoffModel backoff = new BackoffModel(7, 20);
+        backoff.train("originofspecies.txt");
+        // with no misses, the text is the one of the window length 7 model
+        LanguageModel model = new LanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        String expected = model.generate("Natural", 172);
+        String actual = backoff.generate("Natural", 172);
+        boolean result = expected.equals(actual);
+        if (!result) {
+            System.out.println("Expected: " + expected);
+            System.out.println("Actual: " + actual);
+        }
+        // an unseen window backs off to a shorter one instead of stopping
+        String initialText = "zqzqzqze";
+        String text = backoff.generate(initialText, 200);
+        boolean res = backoff.order(initialText) < 7 && text.length() == initialText.length() + 200;
+        if (!res) {
+            System.out.println("Backoff from " + initialText + " failed: " + text);
+        }
+        result = result && res;
+        if (!result) {
+            System.out.println("Backoff Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the ContextTrie class
+    public static boolean testContextTrie() {
+        LanguageModel model = new LanguageModel(7);
+        model.train("originofspecies.txt");
+        ContextTrie trie = new ContextTrie(7);
+        trie.train("originofspecies.txt");
+        boolean result = trie.size() == model.CharDataMap.size();
+        if (!result) {
+            System.out.println("Expected size: " + model.CharDataMap.size());
+            System.out.println("Actual size: " + trie.size());
+        }
+        // the trie holds the same counts, in the same order, as the model
+        String prefix = "Natur";
+        int withPrefix = 0;
+        for (int id = 0; id < model.CharDataMap.size() && result; id++) {
+            String window = model.CharDataMap.window(id);
+            CharList expected = model.CharDataMap.get(id);
+            List actual = trie.get(window);
+            if (window.startsWith(prefix)) withPrefix++;
+            if (actual == null || !actual.toString().equals(expected.toString())) {
+                System.out.println("Window " + window + ": expected " + expected + ", actual " + actual);
+                result = false;
+            }
+        }
+        String[] windows = trie.windowsWithPrefix(prefix);
+        boolean res = trie.countWithPrefix(prefix) == withPrefix && windows.length == withPrefix;
+        for (String window : windows) {
+            res = res && window.startsWith(prefix) && trie.get(window) != null;
+        }
+        res = res && trie.get("zqzqzqz") == null && trie.countWithPrefix("zqz") == 0;
+        if (!res) {
+            System.out.println("Prefix queries for " + prefix + " failed: expected " + withPrefix
+                    + ", counted " + trie.countWithPrefix(prefix) + ", listed " + windows.length);
+        }
+        result = result && res;
+        if (!result) {
+            System.out.println("ContextTrie Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the SuffixArrayModel class
+    public static boolean testSuffixArray() {
+        String corpus = new In("originofspecies.txt").readAll();
+        SuffixArrayModel suffixArray = new SuffixArrayModel(corpus, 20);
+        boolean result = true;
+        // the successors derived on demand are the lists of a trained model
+        for (int windowLength : new int[] {0, 3, 7}) {
+            LanguageModel model = new LanguageModel(windowLength);
+            model.train("originofspecies.txt");
+            for (int id = 0; id < model.CharDataMap.size() && result; id += 97) {
+                String window = model.CharDataMap.window(id);
+                CharList expected = model.CharDataMap.get(id);
+                model.calculateProbabilities(expected);
+                List actual = suffixArray.successors(window);
+                if (!actual.toString().equals(expected.toString())) {
+                    System.out.println("Window " + window + ": expected " + expected + ", actual " + actual);
+                    result = false;
+                }
+            }
+        }
+        boolean res = suffixArray.count("zqzqzqz") == 0 && suffixArray.successors("zqzqzqz").getSize() == 0
+                && suffixArray.count("") == corpus.length();
+        // the window length is chosen per call, and every generated window of
+        // that length followed by its next character occurs in the corpus
+        for (int windowLength : new int[] {4, 10, 30}) {
+            String text = suffixArray.generate(corpus.substring(0, windowLength), 300, windowLength);
+            for (int i = 0; i + windowLength < text.length(); i++) {
+                res = res && corpus.contains(text.substring(i, i + windowLength + 1));
+            }
+            res = res && text.length() > windowLength;
+        }
+        if (!res) {
+            System.out.println("Generating from the suffix array failed");
+        }
+        result = result && res;
+        if (!result) {
+            System.out.println("SuffixArrayModel Test failed");
+        }
+        return result;
+    }
+
+    // Test method for training with a memory budget
+    public static boolean testMemoryBudget() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        LanguageModel budgeted = new LanguageModel(7, 20);
+        long budget = model.estimatedSize() / 3;
+        budgeted.setMemoryBudget(budget);
+        budgeted.train("originofspecies.txt");
+        PruningStats stats = budgeted.getPruningStats();
+        String corpus = new In("originofspecies.txt").readAll();
+        boolean result = budgeted.estimatedSize() <= budget && stats.getPrunes() > 0
+                && stats.getTrainedMass() == corpus.length() - 7
+                && stats.getPrunedFraction() > 0 && stats.getPrunedFraction() < 1
+                && model.getPruningStats().getPrunes() == 0 && model.getPruningStats().getPrunedMass() == 0;
+        if (!result) {
+            System.out.println("Budget " + budget + ", estimated size " + budgeted.estimatedSize() + ": " + stats);
+        }
+        // the surviving counts are at most the exact ones, and the model keeps
+        // the counts that were not pruned
+        budgeted.freeze();
+        long kept = 0;
+        for (int id = 0; id < budgeted.CharDataMap.size() && result; id++) {
+            String window = budgeted.CharDataMap.window(id);
+            CharList exact = model.CharDataMap.get(window.toCharArray(), 0);
+            CharData[] survivors = budgeted.CharDataMap.get(id).toArray();
+            for (CharData cd : survivors) {
+                kept += cd.count;
+                int exactCount = exact.get(exact.indexOf(cd.chr)).count;
+                if (cd.count < 1 || cd.count > exactCount) {
+                    System.out.println("Window " + window + ": " + cd + " against exact " + exactCount);
+                    result = false;
+                }
+            }
+            result = result && Math.abs(survivors[survivors.length - 1].cp - 1) < 1e-9;
+        }
+        result = result && kept + stats.getPrunedMass() == stats.getTrainedMass();
+        // a pruned window is unseen: generation stops at it
+        for (int id = 0; id < model.CharDataMap.size() && result; id++) {
+            String window = model.CharDataMap.window(id);
+            if (budgeted.CharDataMap.get(window.toCharArray(), 0) == null) {
+                result = budgeted.generate(window, 50).equals(window);
+                break;
+            }
+        }
+        if (!result) {
+            System.out.println("MemoryBudget Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the SketchModel class
+    public static boolean testSketch() {
+        LanguageModel model = new LanguageModel(4);
+        model.train("originofspecies.txt");
+        // room for all the windows: the context counts are exact
+        SketchModel sketch = new SketchModel(4, 1 << 20, 4, 1 << 16, 20);
+        sketch.train("originofspecies.txt");
+        boolean result = sketch.size() == model.CharDataMap.size();
+        long pairs = 0;
+        long error = 0;
+        for (int id = 0; id < model.CharDataMap.size() && result; id++) {
+            String window = model.CharDataMap.window(id);
+            int total = 0;
+            for (CharData cd : model.CharDataMap.get(id).toArray()) {
+                int estimate = sketch.estimate(window, cd.chr);
+                // a count-min sketch never underestimates
+                result = result && estimate >= cd.count;
+                error += estimate - cd.count;
+                pairs++;
+                total += cd.count;
+            }
+            result = result && sketch.contextCount(window) == total;
+        }
+        result = result && (double) error / pairs < 0.1 && sketch.contextCount("zqzq") == 0;
+        if (!result) {
+            System.out.println("Sketch estimates failed: average error " + (double) error / pairs);
+        }
+        // a small table keeps the most frequent windows
+        SketchModel small = new SketchModel(4, 1 << 16, 4, 1000, 20);
+        small.train("originofspecies.txt");
+        boolean res = small.size() == 1000 && small.contextCount(" the") > 0 && small.contextCount("the ") > 0;
+        // every generated window followed by its next character occurs in the corpus
+        String corpus = new In("originofspecies.txt").readAll();
+        String text = sketch.generate("Natu", 300);
+        res = res && text.length() == 304;
+        for (int i = 0; i + 4 < text.length(); i++) {
+            res = res && corpus.contains(text.substring(i, i + 5));
+        }
+        if (!res) {
+            System.out.println("Sketch generation failed: " + text);
+        }
+        result = result && res;
+        if (!result) {
+            System.out.println("Sketch Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the ListOrder policies
+    public static boolean testListOrder() {
+        String word = "committee_mississippi";
+        List moveToFront = new List(ListOrder.MOVE_TO_FRONT);
+        List byCount = new List(ListOrder.BY_COUNT);
+        for (int i = 0; i < word.length(); i++) {
+            moveToFront.update(word.charAt(i));
+            byCount.update(word.charAt(i));
+        }
+        boolean result = moveToFront.getFirst().chr == 'i' && moveToFront.indexOf('p') == 1
+                && moveToFront.getSize() == 9 && byCount.getSize() == 9;
+        CharData[] sorted = byCount.toArray();
+        for (int i = 1; i < sorted.length; i++) {
+            result = result && sorted[i - 1].count >= sorted[i].count;
+        }
+        if (!result) {
+            System.out.println("Actual: " + moveToFront + " " + byCount);
+        }
+        // the counts and probabilities of each character do not depend on the order
+        LanguageModel model = new LanguageModel(4);
+        model.train("originofspecies.txt");
+        model.freeze();
+        for (ListOrder order : new ListOrder[] {ListOrder.MOVE_TO_FRONT, ListOrder.BY_COUNT}) {
+            LanguageModel ordered = new LanguageModel(4);
+            ordered.setListOrder(order);
+            ordered.train("originofspecies.txt");
+            ordered.freeze();
+            result = result && ordered.CharDataMap.size() == model.CharDataMap.size();
+            for (int id = 0; id < model.CharDataMap.size() && result; id++) {
+                CharList expected = model.CharDataMap.get(id);
+                CharList actual = ordered.CharDataMap.get(id);
+                result = actual.getSize() == expected.getSize() && actual.getOrder() == order;
+                for (CharData cd : actual.toArray()) {
+                    CharData other = expected.get(expected.indexOf(cd.chr));
+                    result = result && cd.count == other.count && Math.abs(cd.p - other.p) < 1e-12;
+                }
+                if (!result) {
+                    System.out.println("Window " + model.CharDataMap.window(id) + ": expected " + expected
+                            + ", actual " + actual);
+                }
+            }
+        }
+        if (!result) {
+            System.out.println("ListOrder Test failed");
+        }
+        return result;
+    }
+
+    // Tests that the lists of a model trained in parallel, or copied, are in the
+    // same order as those of the model trained sequentially, in every ListOrder:
+    // texts generated with a given seed depend on the order.
+    public static boolean testParallelListOrder() {
+        boolean result = true;
+        int [] windowLengths = {1, 2, 7};
+        for (ListOrder order : ListOrder.values()) {
+            for (int windowLength : windowLengths) {
+                LanguageModel sequential = new LanguageModel(windowLength, 20);
+                sequential.setListOrder(order);
+                sequential.train("shakespeareinlove.txt");
+                sequential.train("originofspecies.txt");
+                // parallel training merges into a model already trained, too
+                LanguageModel parallel = new LanguageModel(windowLength, 20);
+                parallel.setListOrder(order);
+                parallel.setListStorage(ListStorage.TIERED);
+                parallel.train("shakespeareinlove.txt");
+                parallel.trainParallel("originofspecies.txt");
+                LanguageModel copy = new LanguageModel(sequential, new Random(20));
+                String expected = sequential.toString();
+                String expectedText = sequential.generate("Natural", 500);
+                boolean res = expected.equals(parallel.toString()) && expected.equals(copy.toString())
+                        && expectedText.equals(parallel.generate("Natural", 500))
+                        && expectedText.equals(copy.generate("Natural", 500));
+                if (!res) {
+                    System.out.println("ParallelListOrder Test failed with " + order
+                            + " and windowLength = " + windowLength);
+                }
+                result = result && res;
+            }
+        }
+        return result;
+    }
+
+    // Runs the operations of ListTester on every implementation of CharList,
+    // through the interface: each must give the same lists as List, and find the
+    // same characters as a String or a LinkedList of the same characters.
+    public static boolean testCharLists() {
+        boolean result = true;
+        String [] words = {"Hello_world", "JavA", "commitee_", "linked_lists_are_fun", "lexicographic_order"};
+        char [] removeChars = {'e', 'l', '_', 'x', 'o', 'l', 'r', 'c', 'H'};
+        for (int k = 0; k < 4; k++) {
+            for (String word : words) {
+                // addFirst, toString, indexOf and get, on a list built backwards
+                List expected = new List();
+                CharList actual = newCharList(k);
+                for (int i = word.length() - 1; i >= 0; i--) {
+                    expected.addFirst(word.charAt(i));
+                    actual.addFirst(word.charAt(i));
+                    result = result && actual.getFirst().chr == word.charAt(i)
+                            && actual.getSize() == word.length() - i;
+                }
+                result = result && expected.toString().equals(actual.toString());
+                for (int i = 0; i < word.length(); i++) {
+                    result = result && actual.indexOf(word.charAt(i)) == word.indexOf(word.charAt(i))
+                            && actual.get(i).chr == word.charAt(i);
+                }
+                // remove, including characters added more than once
+                LinkedList<Character> solution = new LinkedList<Character>();
+                for (int i = 0; i < word.length(); i++) solution.add(word.charAt(i));
+                for (char c : removeChars) {
+                    int size = actual.getSize();
+                    boolean removed = actual.remove(c);
+                    result = result && removed == solution.removeFirstOccurrence(c)
+                            && actual.getSize() == size - (removed ? 1 : 0)
+                            && actual.indexOf(c) == solution.indexOf(c);
+                }
+                // update
+                expected = new List();
+                actual = newCharList(k);
+                for (int i = 0; i < word.length(); i++) {
+                    expected.update(word.charAt(i));
+                    actual.update(word.charAt(i));
+                    result = result && expected.toString().equals(actual.toString());
+                }
+                if (!result) {
+                    System.out.println("CharLists Test failed for " + actual.getClass().getName()
+                            + " on \"" + word + "\": " + actual);
+                    return false;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Returns a new empty list of the k-th implementation of CharList.
+    private static CharList newCharList(int k) {
+        switch (k) {
+            case 1:
+                return new ArrayCharList();
+            case 2:
+                return new DenseCharList(new Alphabet(), ListOrder.INSERTION);
+            case 3:
+                return new TieredCharList(new Alphabet(), ListOrder.INSERTION);
+            default:
+                return new List();
+        }
+    }
+
+    // Test method for the ArrayCharList class
+    public static boolean testArrayCharList() {
+        boolean result = true;
+        // the same operations give the same lists as List, in every order
+        Random random = new Random(20);
+        String chars = "abcdefgh_";
+        for (ListOrder order : ListOrder.values()) {
+            List expected = new List(order);
+            ArrayCharList actual = new ArrayCharList(order);
+            for (int i = 0; i < 2000 && result; i++) {
+                char chr = chars.charAt(random.nextInt(chars.length()));
+                int operation = random.nextInt(10);
+                if (operation == 0) {
+                    result = expected.remove(chr) == actual.remove(chr);
+                } else if (operation == 1) {
+                    expected.update(chr, 3);
+                    actual.update(chr, 3);
+                } else {
+                    expected.update(chr);
+                    actual.update(chr);
+                }
+                expected.calculateProbabilities();
+                actual.calculateProbabilities();
+                double close = random.nextDouble();
+                result = result && expected.toString().equals(actual.toString())
+                        && expected.getSize() == actual.getSize()
+                        && expected.indexOf(chr) == actual.indexOf(chr)
+                        && expected.select(close) == actual.select(close);
+                for (int j = 0; j < expected.getSize() && result; j++) {
+                    result = expected.get(j).toString().equals(actual.get(j).toString());
+                }
+                if (!result) {
+                    System.out.println(order + " after " + i + " operations: expected " + expected
+                            + ", actual " + actual);
+                }
+            }
+        }
+        // a model generates the same texts with either storage
+        LanguageModel linked = new LanguageModel(7, 20);
+        linked.train("originofspecies.txt");
+        LanguageModel array = new LanguageModel(7, 20);
+        array.setListStorage(ListStorage.ARRAY);
+        array.train("originofspecies.txt");
+        String expected = linked.generate("Natural", 172);
+        String actual = array.generate("Natural", 172);
+        boolean res = expected.equals(actual);
+        LanguageModel linkedSmall = new LanguageModel(2);
+        linkedSmall.train("shakespeareinlove.txt");
+        LanguageModel arraySmall = new LanguageModel(2);
+        arraySmall.setListStorage(ListStorage.ARRAY);
+        arraySmall.train("shakespeareinlove.txt");
+        res = res && linkedSmall.toString().equals(arraySmall.toString());
+        if (!res) {
+            System.out.println("Expected: " + expected);
+            System.out.println("Actual: " + actual);
+        }
+        result = result && res;
+        if (!result) {
+            System.out.println("ArrayCharList Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the TieredCharList class
+    public static boolean testTieredCharList() {
+        boolean result = true;
+        // the same operations give the same lists as List, in every order and
+        // through every tier
+        Random random = new Random(20);
+        String chars = "abcdefghijklmnop_";
+        for (ListOrder order : ListOrder.values()) {
+            List expected = new List(order);
+            TieredCharList actual = new TieredCharList(new Alphabet(), order);
+            int reached = 0;
+            for (int i = 0; i < 3000 && result; i++) {
+                // few characters at first, to stay in the lower tiers for a while
+                int range = i < 300 ? 2 : i < 600 ? 6 : chars.length();
+                char chr = chars.charAt(random.nextInt(range));
+                int operation = random.nextInt(10);
+                if (operation == 0) {
+                    result = expected.remove(chr) == actual.remove(chr);
+                } else if (operation == 1) {
+                    expected.update(chr, 3);
+                    actual.update(chr, 3);
+                } else {
+                    expected.update(chr);
+                    actual.update(chr);
+                }
+                if (random.nextInt(4) > 0) {
+                    expected.calculateProbabilities();
+                    actual.calculateProbabilities();
+                }
+                reached |= 1 << actual.getTier().ordinal();
+                double close = random.nextDouble();
+                result = result && expected.toString().equals(actual.toString())
+                        && expected.getSize() == actual.getSize()
+                        && expected.indexOf(chr) == actual.indexOf(chr)
+                        && expected.select(close) == actual.select(close);
+                if (!result) {
+                    System.out.println(order + " after " + i + " operations: expected " + expected
+                            + ", actual " + actual);
+                }
+            }
+            result = result && reached == 7;
+        }
+        // drawing leaves a list in its tier; a hot list moves to the DENSE tier
+        // when its probabilities are computed, and draws as before
+        List expected = new List();
+        TieredCharList actual = new TieredCharList(new Alphabet(), ListOrder.INSERTION);
+        for (char chr : "abcabcdaeab".toCharArray()) {
+            expected.update(chr);
+            actual.update(chr);
+        }
+        expected.calculateProbabilities();
+        actual.calculateProbabilities();
+        for (int i = 0; i < 2 * TieredCharList.HOT_COUNT && result; i++) {
+            double close = random.nextDouble();
+            result = expected.select(close) == actual.select(close) && actual.getTier() == SuccessorTier.SMALL;
+        }
+        for (int i = 0; i < TieredCharList.HOT_COUNT; i++) {
+            char chr = "abcde".charAt(random.nextInt(5));
+            expected.update(chr);
+            actual.update(chr);
+        }
+        result = result && actual.getTier() == SuccessorTier.SMALL;
+        expected.calculateProbabilities();
+        actual.calculateProbabilities();
+        result = result && actual.getTier() == SuccessorTier.DENSE && expected.toString().equals(actual.toString());
+        for (int i = 0; i < 1000 && result; i++) {
+            double close = random.nextDouble();
+            result = expected.select(close) == actual.select(close);
+        }
+        // a model generates the same texts with TIERED lists, and counts its tiers
+        LanguageModel linked = new LanguageModel(7, 20);
+        linked.train("originofspecies.txt");
+        LanguageModel tiered = new LanguageModel(7, 20);
+        tiered.setListStorage(ListStorage.TIERED);
+        tiered.train("originofspecies.txt");
+        int windows = 0;
+        for (SuccessorTier tier : SuccessorTier.values()) windows += tiered.getTierCount(tier);
+        boolean res = windows == tiered.CharDataMap.size() && linked.getTierCount(SuccessorTier.SINGLE) == 0;
+        String expectedText = linked.generate("Natural", 172);
+        String actualText = tiered.generate("Natural", 172);
+        res = res && expectedText.equals(actualText);
+        LanguageModel linkedSmall = new LanguageModel(2, 20);
+        linkedSmall.train("shakespeareinlove.txt");
+        LanguageModel tieredSmall = new LanguageModel(2, 20);
+        tieredSmall.setListStorage(ListStorage.TIERED);
+        tieredSmall.train("shakespeareinlove.txt");
+        res = res && tieredSmall.getTierCount(SuccessorTier.DENSE) > 0
+                && linkedSmall.toString().equals(tieredSmall.toString())
+                && linkedSmall.generate("th", 5000).equals(tieredSmall.generate("th", 5000));
+        if (!res) {
+            System.out.println("Expected: " + expectedText);
+            System.out.println("Actual: " + actualText);
+        }
+        result = result && res;
+        if (!result) {
+            System.out.println("TieredCharList Test failed");
+        }
+        return result;
+    }
+
+    // Test method for generation with forced runs
+    public static boolean testForcedRuns() {
+        boolean result = true;
+        String[] initialTexts = {"Natural", "Natu", "Na"};
+        int[] textLengths = {5000, 3, 1, 0};
+        for (String initialText : initialTexts) {
+            LanguageModel model = new LanguageModel(initialText.length(), 20);
+            model.setForcedRuns(true);
+            model.train("originofspecies.txt");
+            LanguageModel reference = new LanguageModel(initialText.length());
+            reference.train("originofspecies.txt");
+            Random random = new Random(20);
+            for (int round = 0; round < 2 && result; round++) {
+                // a model generates in turn what drawing only for windows with
+                // more than one successor does
+                for (int textLength : textLengths) {
+                    String expected = generateForced(reference, initialText, textLength, random);
+                    String actual = model.generate(initialText, textLength);
+                    result = result && expected.equals(actual);
+                    if (!result) {
+                        System.out.println("Expected: " + expected);
+                        System.out.println("Actual: " + actual);
+                    }
+                }
+                StringBuilder expected = new StringBuilder();
+                StringBuilder actual = new StringBuilder();
+                expected.append(generateForced(reference, initialText, 2000, random).substring(initialText.length()));
+                try {
+                    // an Appendable other than a StringBuilder
+                    StringWriter writer = new StringWriter();
+                    model.generate(initialText, 2000, writer);
+                    actual.append(writer);
+                } catch (IOException e) {
+                    result = false;
+                }
+                result = result && expected.toString().equals(actual.toString());
+                // training again finds the runs again
+                model.train("shakespeareinlove.txt");
+                reference.train("shakespeareinlove.txt");
+            }
+        }
+        if (!result) {
+            System.out.println("ForcedRuns Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the SymbolModel class
+    public static boolean testSymbolModel() {
+        boolean result = true;
+        String[] fileNames = {"shakespeareinlove.txt", "originofspecies.txt"};
+        int[] windowLengths = {0, 2, 4, 7, 12};
+        for (String fileName : fileNames) {
+            String corpus = new In(fileName).readAll();
+            for (int windowLength : windowLengths) {
+                if (fileName.startsWith("origin") && windowLength != 7) continue;
+                // the same counts as a LanguageModel, with every window exact up to 9 symbols
+                LanguageModel model = new LanguageModel(windowLength);
+                model.train(fileName);
+                SymbolModel symbols = new SymbolModel(windowLength, 20);
+                symbols.train(fileName);
+                result = result && symbols.size() == model.CharDataMap.size()
+                        && symbols.getBitsPerSymbol() == 7 && symbols.isExact() == (windowLength <= 9);
+                for (int id = 0; id < model.CharDataMap.size() && result; id++) {
+                    String window = model.CharDataMap.window(id);
+                    for (CharData cd : model.CharDataMap.get(id).toArray()) {
+                        result = result && symbols.count(window, cd.chr) == cd.count;
+                    }
+                    if (!result) {
+                        System.out.println(fileName + " window " + window + ": expected "
+                                + model.CharDataMap.get(id));
+                    }
+                }
+                result = result && symbols.count(corpus.substring(0, windowLength), '\u2603') == 0;
+                // generates only what was seen, the same text for the same seed
+                SymbolModel again = new SymbolModel(windowLength, 20);
+                again.trainCorpus(corpus);
+                String initialText = corpus.substring(0, windowLength);
+                String text = symbols.generate(initialText, 2000);
+                result = result && text.equals(again.generate(initialText, 2000));
+                for (int i = windowLength; i < text.length() && result; i++) {
+                    result = symbols.count(text.substring(i - windowLength, i), text.charAt(i)) > 0;
+                }
+                if (!result) {
+                    System.out.println(fileName + " windowLength " + windowLength + ": " + text);
+                }
+            }
+        }
+        // a window with an unknown character generates nothing, and a model is trained once
+        SymbolModel model = new SymbolModel(3, 20);
+        model.trainCorpus("abcabcabd");
+        result = result && model.getAlphabetSize() == 4 && model.getBitsPerSymbol() == 2
+                && model.count("abc", 'a') == 2 && model.count("cab", 'd') == 1
+                && model.generate("xyz", 10).equals("xyz");
+        try {
+            model.trainCorpus("abc");
+            result = false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        if (!result) {
+            System.out.println("SymbolModel Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the file channel path of In
+    public static boolean testInFastPath() {
+        boolean result = true;
+        try {
+            // multi-byte characters across the byte buffers, and malformed bytes
+            File file = File.createTempFile("corpus", ".txt");
+            file.deleteOnExit();
+            FileOutputStream out = new FileOutputStream(file);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 50000; i++) text.append(i % 7 == 0 ? "\u00e9t\u00e9 " : i % 11 == 0 ? "\u20ac\n" : "ab");
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            out.write(new byte[] {(byte) 0xC3, 'x', (byte) 0xFF, (byte) 0xE2, (byte) 0x82});
+            out.close();
+            String[] fileNames = {"shakespeareinlove.txt", "originofspecies.txt", file.getPath()};
+            for (String fileName : fileNames) {
+                String expected = scannerIn(fileName).readAll();
+                // readAll, read and chunks give the text a Scanner reads
+                boolean res = new In(fileName).readAll().equals(expected);
+                StringBuilder read = new StringBuilder();
+                In in = new In(fileName);
+                char[] buf = new char[1000];
+                int n;
+                while ((n = in.read(buf, 0, buf.length)) != -1) read.append(buf, 0, n);
+                res = res && read.toString().equals(expected);
+                StringBuilder chunks = new StringBuilder();
+                for (Iterator<CharBuffer> it = new In(new File(fileName)).chunks(4096); it.hasNext(); ) {
+                    chunks.append(it.next());
+                }
+                res = res && chunks.toString().equals(expected);
+                // tokens and lines after a read continue where it stopped
+                In mixed = new In(fileName);
+                In reference = scannerIn(fileName);
+                char[] first = new char[10];
+                char[] second = new char[10];
+                mixed.read(first, 0, 10);
+                reference.read(second, 0, 10);
+                res = res && Arrays.equals(first, second)
+                        && mixed.readLine().equals(reference.readLine())
+                        && mixed.readString().equals(reference.readString())
+                        && mixed.readAll().equals(reference.readAll());
+                if (!res) {
+                    System.out.println("In fast path differs from Scanner on " + fileName);
+                }
+                result = result && res;
+            }
+            // a buffer of one char before a supplementary character (two chars)
+            File emoji = File.createTempFile("corpus", ".txt");
+            emoji.deleteOnExit();
+            String expected = "a\uD83D\uDE00b\uD83D\uDE00\uD83D\uDE00c";
+            Files.write(emoji.toPath(), expected.getBytes(StandardCharsets.UTF_8));
+            for (int size = 1; size <= 3; size++) {
+                StringBuilder chunks = new StringBuilder();
+                int count = 0;
+                for (Iterator<CharBuffer> it = new In(emoji).chunks(size);
+                        it.hasNext() && count <= expected.length(); count++) {
+                    CharBuffer chunk = it.next();
+                    if (chunk.length() == 0) count = expected.length();
+                    chunks.append(chunk);
+                }
+                StringBuilder read = new StringBuilder();
+                In in = new In(emoji.getPath());
+                char[] buf = new char[size];
+                int n;
+                while ((n = in.read(buf, 0, size)) > 0 && read.length() <= expected.length()) read.append(buf, 0, n);
+                boolean res = chunks.toString().equals(expected) && n == -1 && read.toString().equals(expected);
+                if (!res) {
+                    System.out.println("In fast path fails on a supplementary character with chunks of " + size);
+                }
+                result = result && res;
+            }
+        } catch (IOException e) {
+            result = false;
+        }
+        if (!result) {
+            System.out.println("InFastPath Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the MappedCorpus class and training on it
+    public static boolean testMappedCorpus() {
+        boolean result = true;
+        try {
+            String[] fileNames = {"shakespeareinlove.txt", "originofspecies.txt"};
+            Random random = new Random(20);
+            for (String fileName : fileNames) {
+                String expected = new String(Files.readAllBytes(new File(fileName).toPath()),
+                        StandardCharsets.ISO_8859_1);
+                // small segments, so reads cross segment boundaries
+                MappedCorpus[] corpora = {MappedCorpus.open(fileName), MappedCorpus.open(fileName, 12)};
+                for (MappedCorpus corpus : corpora) {
+                    boolean res = corpus.size() == expected.length() && corpus.toString().equals(expected);
+                    for (int i = 0; i < 100; i++) {
+                        int from = random.nextInt(expected.length());
+                        int to = from + random.nextInt(Math.min(10000, expected.length() - from));
+                        char[] chars = new char[to - from + 2];
+                        corpus.getChars(from, chars, 1, to - from);
+                        res = res && corpus.charAt(from) == expected.charAt(from)
+                                && new String(chars, 1, to - from).equals(expected.substring(from, to))
+                                && corpus.subSequence(from, to).toString().equals(expected.substring(from, to));
+                    }
+                    if (!res) {
+                        System.out.println("MappedCorpus of " + fileName + " differs from its bytes");
+                    }
+                    result = result && res;
+                }
+                // training on the mapped corpus builds the model training on its text does
+                for (int windowLength : new int[] {2, 7}) {
+                    LanguageModel model = new LanguageModel(windowLength);
+                    model.trainParallel(expected, ForkJoinPool.commonPool());
+                    LanguageModel mapped = new LanguageModel(windowLength);
+                    mapped.train(corpora[1]);
+                    LanguageModel parallel = new LanguageModel(windowLength);
+                    parallel.trainParallel(corpora[1], ForkJoinPool.commonPool());
+                    boolean res = mapped.toString().equals(model.toString())
+                            && parallel.toString().equals(model.toString());
+                    if (fileName.equals("shakespeareinlove.txt")) {
+                        // an ASCII file: the same model as training on the file
+                        LanguageModel trained = new LanguageModel(windowLength);
+                        trained.train(fileName);
+                        res = res && trained.toString().equals(model.toString());
+                    }
+                    if (!res) {
+                        System.out.println("Model trained on MappedCorpus of " + fileName
+                                + " differs, windowLength " + windowLength);
+                    }
+                    result = result && res;
+                }
+            }
+            // a sparse file of 3 GB, indexed past Integer.MAX_VALUE
+            File file = File.createTempFile("corpus", ".txt");
+            file.deleteOnExit();
+            long position = (1L << 31) - 3;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(3L << 30);
+                raf.seek(position);
+                raf.write("large corpus".getBytes(StandardCharsets.ISO_8859_1));
+            }
+            MappedCorpus large = MappedCorpus.open(file.getPath());
+            char[] chars = new char[12];
+            large.getChars(position, chars, 0, 12);
+            boolean res = large.size() == 3L << 30 && new String(chars).equals("large corpus")
+                    && large.charAt(position + 6) == 'c' && large.charAt(1L << 30) == 0
+                    && large.slice(position, 12).length() == 12
+                    && large.slice(position, 12).toString().equals("large corpus");
+            try {
+                large.length();
+                res = false;
+            } catch (IllegalStateException e) {
+                // expected: the corpus has more characters than an int counts
+            }
+            if (!res) {
+                System.out.println("MappedCorpus of a 3 GB file failed");
+            }
+            result = result && res;
+        } catch (IOException e) {
+            result = false;
+        }
+        if (!result) {
+            System.out.println("MappedCorpus Test failed");
+        }
+        return result;
+    }
+
+    // Tests that a copy of a model with forced runs, as LiveModel.trainMore makes,
+    // generates with them too
+    public static boolean testCopyForcedRuns() {
+        LanguageModel model = new LanguageModel(7);
+        model.setForcedRuns(true);
+        model.train("originofspecies.txt");
+        LanguageModel reference = new LanguageModel(7);
+        reference.train("originofspecies.txt");
+        LanguageModel copy = new LanguageModel(model, new Random(20));
+        boolean result = copy.generate("Natural", 3000)
+                .equals(generateForced(reference, "Natural", 3000, new Random(20)));
+        // and so does a copy of the copy, trained further
+        LanguageModel more = new LanguageModel(copy, new Random(20));
+        more.train("shakespeareinlove.txt");
+        reference.train("shakespeareinlove.txt");
+        result = result && more.generate("Natural", 3000)
+                .equals(generateForced(reference, "Natural", 3000, new Random(20)));
+        if (!result) {
+            System.out.println("CopyForcedRuns Test failed");
+        }
+        return result;
+    }
+
+    // Returns an In that reads the given file through a Scanner, as In did before it read files itself.
+    private static In scannerIn(String fileName) throws IOException {
+        return new In(new Scanner(new BufferedInputStream(new FileInputStream(fileName)),
+                "UTF-8"));
+    }
+
+    // Generates from the lists of the given model, drawing from the given
+    // generator only for windows with more than one successor.
+    private static String generateForced(LanguageModel model, String initialText, int textLength, Random random) {
+        StringBuilder text = new StringBuilder(initialText);
+        int windowLength = initialText.length();
+        for (int i = 0; i < textLength; i++) {
+            char[] window = text.substring(text.length() - windowLength).toCharArray();
+            CharList probs = model.CharDataMap.get(window, 0);
+            if (probs == null) break;
+            if (i == 0) model.freeze();
+            text.append(probs.getSize() == 1 ? probs.getFirst().chr : probs.select(random.nextDouble()));
+        }
+        return text.toString();
+    }
+
     private static boolean stringEqualsNoSpaces(String s1, String s2) {
         s1 = s1.replaceAll("\\s+", "");
         s2 = s2.replaceAll("\\s+", "");
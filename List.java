@@ -3,18 +3,33 @@
  *  However, users of this class are not aware of the Node objects. As far as they are concerned,
  *  the class represents a list of CharData objects. Likwise, the API of the class does not
  *  mention the existence of the Node objects). */
-public class List {
+public class List implements CharList {
 
     // Points to the first node in this list
     private Node first;
 
     // The number of elements in this list
     private int size;
+
+    // How this list orders its elements as they are updated
+    private final ListOrder order;
 	
     /** Constructs an empty list. */
     public List() {
+        this(ListOrder.INSERTION);
+    }
+
+    /** Constructs an empty list that orders its elements as they are updated
+     *  by the given policy. */
+    public List(ListOrder order) {
         first = null;
         size = 0;
+        this.order = order;
+    }
+
+    /** Returns how this list orders its elements as they are updated. */
+    public ListOrder getOrder() {
+        return order;
     }
 
     /** Returns the number of elements in this list. */
@@ -58,17 +73,64 @@ public class List {
 
     /** If the given character exists in one of the CharData objects in this list,
      *  increments its counter. Otherwise, adds a new CharData object with the
-     *  given chr to the beginning of this list. */
+     *  given chr to the beginning of this list (to the place of its count, if
+     *  the list is ordered BY_COUNT). */
     public void update(char chr) {
+        update(chr, 1);
+    }
+
+    /** If the given character exists in one of the CharData objects in this list,
+     *  adds the given count to its counter. Otherwise, adds a new CharData object
+     *  with the given chr and count to the beginning of this list (to the place
+     *  of its count, if the list is ordered BY_COUNT). */
+    public void update(char chr, int count) {
+        Node before = null;
         Node current = first;
-        while (current !=  null) {
+        while (current != null) {
             if (current.cp.chr == chr) {
-                current.cp.count++;
+                current.cp.count += count;
+                if (before != null && order != ListOrder.INSERTION) moveUp(before, current);
                 return;
             }
+            before = current;
             current = current.next;
         }
-        addFirst(chr);
+        CharData cd = new CharData(chr);
+        cd.count = count;
+        Node node = new Node(cd);
+        if (order == ListOrder.BY_COUNT) {
+            insertByCount(node);
+        } else {
+            node.next = first;
+            first = node;
+        }
+        size++;
+    }
+
+    // Moves the given node, which follows the given node, to its new place:
+    // to the beginning of this list, or ahead of the nodes of lower count.
+    private void moveUp(Node before, Node node) {
+        if (order == ListOrder.BY_COUNT && before.cp.count >= node.cp.count) return;
+        before.next = node.next;
+        if (order == ListOrder.MOVE_TO_FRONT) {
+            node.next = first;
+            first = node;
+        } else {
+            insertByCount(node);
+        }
+    }
+
+    // Inserts the given node (not in this list) before the first node of lower count.
+    private void insertByCount(Node node) {
+        if (first == null || first.cp.count < node.cp.count) {
+            node.next = first;
+            first = node;
+            return;
+        }
+        Node before = first;
+        while (before.next != null && before.next.cp.count >= node.cp.count) before = before.next;
+        node.next = before.next;
+        before.next = node;
     }
 
     /** GIVE If the given character exists in one of the CharData objects
@@ -76,11 +138,15 @@ public class List {
      *  true. Otherwise, returns false. */
     public boolean remove(char chr) {
         Node current = first;
-        Node before = current;
+        Node before = null;
         while (current != null) {
             if (current.cp.chr == chr) {
-                before.next = current.next;
-                current = null;
+                if (before == null) {
+                    first = current.next;
+                } else {
+                    before.next = current.next;
+                }
+                size--;
                 return true;
             }
             before = current;
@@ -112,6 +178,36 @@ public class List {
         return arr;
     }
 
+    /** Computes and sets the probabilities (p and cp fields) of all the
+     *  characters in this list, in list order. */
+    public void calculateProbabilities() {
+        if (size == 0) return;
+        double num = 0;
+        double current = 0;
+        for (Node node = first; node != null; node = node.next) {
+            num += node.cp.count;
+        }
+        for (Node node = first; node != null; node = node.next) {
+            CharData cd = node.cp;
+            cd.p = cd.count / num;
+            cd.cp = current + cd.p;
+            current = cd.cp;
+        }
+    }
+
+    /** Returns the first character in this list whose cumulative probability
+     *  is at least the given number. If rounding leaves the last cumulative
+     *  probability below it, returns the last character; if the list is
+     *  empty, returns 0. */
+    public char select(double close) {
+        char last = 0;
+        for (Node node = first; node != null; node = node.next) {
+            if (node.cp.cp >= close) return node.cp.chr;
+            last = node.cp.chr;
+        }
+        return last;
+    }
+
     /** Returns an iterator over the elements in this list, starting at the given index. */
     public ListIterator listIterator(int index) {
 	    // If the list is empty, there is nothing to iterate   
@@ -0,0 +1,31 @@
+/** The ways in which a ContextMap stores the successor lists of its windows. */
+public enum ListStorage {
+
+    /** A List: a linked list of Node and CharData objects, three objects per
+     *  successor. */
+    LINKED,
+
+    /** An ArrayCharList: parallel arrays of characters, counts and
+     *  probabilities, which grow as needed. No objects per successor, and
+     *  scans are loops over arrays. */
+    ARRAY,
+
+    /** A TieredCharList: each list is stored by the number of its successors
+     *  and how often its window was counted (see SuccessorTier). Its characters are
+     *  numbered by an Alphabet shared by the lists of a map. */
+    TIERED;
+
+    /** Returns a new empty list of this storage, ordered by the given policy.
+     *  TIERED lists number their characters by the given alphabet, which the
+     *  other storages ignore. */
+    public CharList newList(ListOrder order, Alphabet alphabet) {
+        switch (this) {
+            case ARRAY:
+                return new ArrayCharList(order);
+            case TIERED:
+                return new TieredCharList(alphabet, order);
+            default:
+                return new List(order);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.random.RandomGenerator;
+
+/** A language model that keeps generating texts while it is being retrained.
+ *  <p>
+ *  Readers generate from the current snapshot, an immutable FrozenModel, which
+ *  they get with one atomic read and never need to lock. Retraining happens on
+ *  a background thread, on a copy of the counts (or on a new model), never on
+ *  the model behind the current snapshot. Once training is done, a new snapshot
+ *  is frozen and swapped in atomically, so readers see either the old model or
+ *  the new one, and never a partly trained one. Readers that got the old
+ *  snapshot can keep using it safely.
+ *  <p>
+ *  A live model owns its trainer thread: close it when it is no longer
+ *  retrained. */
+public class LiveModel implements AutoCloseable {
+
+    // The snapshot that readers use.
+    private final AtomicReference<FrozenModel> snapshot;
+
+    // The model of the current snapshot. Only used by the trainer thread, and
+    // never changed once a snapshot has been frozen from it.
+    private LanguageModel trained;
+
+    // The way in which snapshots draw successors, and whether they are compiled.
+    private final Sampling sampling;
+    private final boolean compiled;
+
+    // Runs the retraining tasks one at a time, in the order they were requested.
+    private final ExecutorService trainer;
+
+    /** Constructs a live model that starts serving a snapshot of the given model,
+     *  with the given sampling (and compiled transitions, if compiled is true).
+     *  The given model must not be trained further by the caller. */
+    public LiveModel(LanguageModel model, Sampling sampling, boolean compiled) {
+        this.sampling = sampling;
+        this.compiled = compiled;
+        trained = model;
+        snapshot = new AtomicReference<FrozenModel>(new FrozenModel(model, sampling, compiled));
+        trainer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "LiveModel trainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Returns the current snapshot. */
+    public FrozenModel snapshot() {
+        return snapshot.get();
+    }
+
+    /** Generates a random text from the current snapshot. See FrozenModel.generate. */
+    public String generate(String initialText, int textLength, RandomGenerator random) {
+        return snapshot.get().generate(initialText, textLength, random);
+    }
+
+    /** Starts training a new model, with the window length, settings and random
+     *  number generator of the current one (see LanguageModel.untrainedCopy), on
+     *  the text in the given file, in the background. When it is done, its
+     *  snapshot replaces the current one, and the returned future completes
+     *  with it. */
+    public CompletableFuture<FrozenModel> retrain(String fileName) {
+        return CompletableFuture.supplyAsync(() -> {
+            LanguageModel model = trained.untrainedCopy(trained.getRandomGenerator());
+            model.train(fileName);
+            return publish(model);
+        }, trainer);
+    }
+
+    /** Starts training a copy of the current model (with its settings and random
+     *  number generator) further on the text in the given file, in the
+     *  background. When it is done, its snapshot replaces the current one, and
+     *  the returned future completes with it. */
+    public CompletableFuture<FrozenModel> trainMore(String fileName) {
+        return CompletableFuture.supplyAsync(() -> {
+            LanguageModel model = new LanguageModel(trained, trained.getRandomGenerator());
+            model.train(fileName);
+            return publish(model);
+        }, trainer);
+    }
+
+    /** Stops accepting training, waits for the training already requested to
+     *  finish (and its snapshot to be swapped in), and stops the trainer thread.
+     *  Afterwards, retrain() and trainMore() throw a RejectedExecutionException;
+     *  snapshot() and generate() keep serving the last snapshot. If interrupted
+     *  while waiting, cancels the pending training and keeps the interrupt
+     *  status. */
+    public void close() {
+        trainer.close();
+    }
+
+    // Freezes the given model and swaps its snapshot in. Runs on the trainer thread.
+    private FrozenModel publish(LanguageModel model) {
+        FrozenModel next = new FrozenModel(model, sampling, compiled);
+        trained = model;
+        snapshot.set(next);
+        return next;
+    }
+}
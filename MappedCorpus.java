@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** A corpus file mapped into memory and read as text, one character per byte
+ *  (ASCII or Latin-1). Nothing is decoded or copied when the corpus is opened:
+ *  the text stays in the pages of the file, which the operating system loads
+ *  as they are read and may drop again under memory pressure, so even a corpus
+ *  larger than the heap can be trained on. Each byte b is the character
+ *  (char) (b & 0xFF); for a UTF-8 file this is the text In reads only if the
+ *  file is ASCII.
+ *  <p>
+ *  A MappedByteBuffer holds at most 2 GB, so the file is mapped in segments of
+ *  2^SEGMENT_BITS bytes, and the characters of the corpus are indexed by longs:
+ *  see size(), charAt(long), getChars() and slice(). As a CharSequence, the
+ *  corpus is usable (for example by trainParallel) when it has at most
+ *  Integer.MAX_VALUE characters; length() throws otherwise. The file must not
+ *  change while the corpus is in use. */
+public class MappedCorpus implements CharSequence {
+
+    // The log2 of the number of bytes of each mapped segment of the file.
+    static final int SEGMENT_BITS = 30;
+
+    // The number of bytes getChars() copies from the mapping at a time.
+    private static final int COPY_SIZE = 1 << 13;
+
+    // The mapped segments of the file, shared by the slices of a corpus.
+    private final MappedByteBuffer[] segments;
+
+    // The log2 of the length of the segments.
+    private final int segmentBits;
+
+    // The position in the file of the first character of this corpus, and the
+    // number of its characters.
+    private final long start;
+    private final long size;
+
+    private MappedCorpus(MappedByteBuffer[] segments, int segmentBits, long start, long size) {
+        this.segments = segments;
+        this.segmentBits = segmentBits;
+        this.start = start;
+        this.size = size;
+    }
+
+    /** Maps the given file into memory, as a corpus of all its bytes. */
+    public static MappedCorpus open(String fileName) throws IOException {
+        return open(fileName, SEGMENT_BITS);
+    }
+
+    // Maps the given file in segments of 2^segmentBits bytes.
+    static MappedCorpus open(String fileName, int segmentBits) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long segmentSize = 1L << segmentBits;
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) >>> segmentBits)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i << segmentBits;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(segmentSize, size - position));
+            }
+            return new MappedCorpus(segments, segmentBits, 0, size);
+        }
+    }
+
+    /** Returns the number of characters of this corpus. */
+    public long size() {
+        return size;
+    }
+
+    /** Returns the number of characters of this corpus. If it has more than
+     *  Integer.MAX_VALUE characters, throws an IllegalStateException: use size()
+     *  and slice() instead. */
+    public int length() {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Corpus of " + size + " characters: use size() and slice()");
+        }
+        return (int) size;
+    }
+
+    /** Returns the character at the given index of this corpus. */
+    public char charAt(int index) {
+        return charAt((long) index);
+    }
+
+    /** Returns the character at the given index of this corpus. If the index is
+     *  negative or not less than size(), throws an IndexOutOfBoundsException. */
+    public char charAt(long index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        long position = start + index;
+        int offset = (int) (position & ((1L << segmentBits) - 1));
+        return (char) (segments[(int) (position >>> segmentBits)].get(offset) & 0xFF);
+    }
+
+    /** Copies the len characters of this corpus starting at index from into
+     *  dst, starting at dst[off]. This is the fast way to read the corpus: it
+     *  copies the mapped bytes in bulk and widens them with a Latin-1 decoder,
+     *  whose loop the JVM compiles to vector instructions (about 4 times as
+     *  fast as widening byte by byte). */
+    public void getChars(long from, char[] dst, int off, int len) {
+        if (from < 0 || len < 0 || from + len > size) throw new IndexOutOfBoundsException(from);
+        CharsetDecoder decoder = StandardCharsets.ISO_8859_1.newDecoder();
+        CharBuffer out = CharBuffer.wrap(dst, off, len);
+        byte[] bytes = new byte[Math.min(len, COPY_SIZE)];
+        long position = start + from;
+        long mask = (1L << segmentBits) - 1;
+        while (len > 0) {
+            MappedByteBuffer segment = segments[(int) (position >>> segmentBits)];
+            int offset = (int) (position & mask);
+            int n = Math.min(Math.min(len, bytes.length), segment.limit() - offset);
+            segment.get(offset, bytes, 0, n);
+            // every byte is a Latin-1 character, so decoding cannot fail
+            decoder.decode(ByteBuffer.wrap(bytes, 0, n), out, false);
+            position += n;
+            len -= n;
+        }
+    }
+
+    /** Returns the corpus of the length characters of this corpus starting at
+     *  index from. The slice shares the mapped file; nothing is copied. */
+    public MappedCorpus slice(long from, long length) {
+        if (from < 0 || length < 0 || from + length > size) throw new IndexOutOfBoundsException(from);
+        return new MappedCorpus(segments, segmentBits, start + from, length);
+    }
+
+    /** Returns the characters [start, end) of this corpus, as a slice of it. */
+    public CharSequence subSequence(int start, int end) {
+        return slice(start, end - start);
+    }
+
+    /** Returns the text of this corpus, as a String (a copy). */
+    public String toString() {
+        char[] chars = new char[length()];
+        getChars(0, chars, 0, chars.length);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,75 @@
+/** How much a memory-budgeted LanguageModel pruned while training: the count
+ *  threshold it reached, and the counts, windows and successors it discarded.
+ *  The mass of the model is the total of its counts, one per trained window. */
+public class PruningStats {
+
+    // The count below which windows and successors are pruned.
+    private final int threshold;
+
+    // The number of times the model was pruned.
+    private final int prunes;
+
+    // The number of windows counted in training.
+    private final long trainedMass;
+
+    // The total of the counts that were pruned.
+    private final long prunedMass;
+
+    // The number of windows and of successors that were pruned.
+    private final long prunedWindows;
+    private final long prunedSuccessors;
+
+    /** Constructs the statistics of a model with the given values. */
+    public PruningStats(int threshold, int prunes, long trainedMass, long prunedMass,
+                        long prunedWindows, long prunedSuccessors) {
+        this.threshold = threshold;
+        this.prunes = prunes;
+        this.trainedMass = trainedMass;
+        this.prunedMass = prunedMass;
+        this.prunedWindows = prunedWindows;
+        this.prunedSuccessors = prunedSuccessors;
+    }
+
+    /** Returns the count below which windows and successors are pruned. */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /** Returns the number of times the model was pruned. */
+    public int getPrunes() {
+        return prunes;
+    }
+
+    /** Returns the number of windows counted in training. */
+    public long getTrainedMass() {
+        return trainedMass;
+    }
+
+    /** Returns the total of the counts that were pruned. */
+    public long getPrunedMass() {
+        return prunedMass;
+    }
+
+    /** Returns the fraction of the trained mass that was pruned. */
+    public double getPrunedFraction() {
+        return trainedMass == 0 ? 0 : (double) prunedMass / trainedMass;
+    }
+
+    /** Returns the number of windows that were pruned. A window pruned and
+     *  seen again later is counted again if it is pruned again. */
+    public long getPrunedWindows() {
+        return prunedWindows;
+    }
+
+    /** Returns the number of successors that were pruned. */
+    public long getPrunedSuccessors() {
+        return prunedSuccessors;
+    }
+
+    /** Returns a string representing these statistics. */
+    public String toString() {
+        return String.format("threshold %d, %d prunes, pruned %d of %d counts (%.2f%%), %d windows, %d successors",
+                threshold, prunes, prunedMass, trainedMass, 100 * getPrunedFraction(),
+                prunedWindows, prunedSuccessors);
+    }
+}
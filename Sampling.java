@@ -0,0 +1,22 @@
+/** The ways in which a FrozenModel, or a LanguageModel (see setSampling), can
+ *  draw a random successor of a window. */
+public enum Sampling {
+
+    /** Scans the successors, comparing their cumulative probabilities with one
+     *  random double, as LanguageModel.getRandomChar does. Generates the same
+     *  texts as LanguageModel. If rounding leaves the last cumulative
+     *  probability below the double, draws the last successor. Takes time
+     *  linear in the number of successors. */
+    SCAN,
+
+    /** Vose's alias method: one random double picks a successor and a coin
+     *  between it and its alias. Takes constant time, and 12 more bytes per
+     *  successor for the alias tables, which are built when the model is frozen. */
+    ALIAS,
+
+    /** Draws a random int below the total count of the window, and finds the
+     *  successor whose range of the cumulative counts holds it by binary search.
+     *  Exact integer arithmetic, so every draw returns a successor. Takes time
+     *  logarithmic in the number of successors, and no extra memory. */
+    BINARY_SEARCH
+}
@@ -0,0 +1,341 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+/** An approximate language model of fixed size, for training on corpora whose
+ *  exact model would not fit in memory.
+ *  <p>
+ *  The counts of (window, next character) pairs go into a count-min sketch:
+ *  depth rows of width counters, where each pair increments one counter per
+ *  row, and the estimate of a pair is the least of its counters. Collisions
+ *  only add to counters, so an estimate is never below the true count. Updates
+ *  are conservative: only the counters that equal the current estimate are
+ *  incremented, which keeps the overestimate much smaller.
+ *  <p>
+ *  The sketch cannot list the windows it has seen, so the most frequent
+ *  windows are kept in a table of a fixed number of contexts, with the
+ *  Space-Saving algorithm: a new window replaces the least counted one when
+ *  the table is full. While there are fewer distinct windows than contexts,
+ *  the table holds all of them with their exact counts. Generation treats a
+ *  window that is not in the table as unseen, and otherwise draws the next
+ *  character in proportion to the estimates of the window followed by each
+ *  character of the alphabet seen in training.
+ *  <p>
+ *  Windows longer than WindowKeys.MAX_PACKED_LENGTH are known by their 64-bit
+ *  hash only, and the size of the model is fixed when it is constructed. As
+ *  measured by "java LanguageModelBenchmark sketch" on originofspecies.txt,
+ *  with depth 4 and 64K contexts: at window length 4, 256K counters per row
+ *  (6 MB) give 99.8% of the pairs their exact count, with an average error of
+ *  0.003; at window length 7, 1M counters per row (18 MB, against 50 MB for
+ *  the exact model) give 97.2% exact counts, an average error of 0.13, and
+ *  contexts that cover 67% of the trained mass. */
+public class SketchModel {
+
+    // The number of corpus characters read at a time by train().
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // Computes the keys of the windows.
+    private final WindowKeys windowKeys;
+
+    // The counters of the sketch, row r starting at index r * width.
+    private final int[] sketch;
+
+    // The number of rows of the sketch, and the number of counters per row (a power of 2).
+    private final int depth;
+    private final int width;
+
+    // The key and count of each context in the table, by entry.
+    private final long[] contextKeys;
+    private final int[] contextCounts;
+
+    // The number of entries in use.
+    private int contexts;
+
+    // A min-heap of the entries by count, and the position of each entry in it.
+    private final int[] heap;
+    private final int[] heapPosition;
+
+    // An open-addressing index of the entries by key: entry + 1, or 0 for an empty slot.
+    private final int[] index;
+
+    // The characters seen in training, in the order in which they were first
+    // seen, and which of them were seen.
+    private char[] alphabet;
+    private int alphabetSize;
+    private final boolean[] seen;
+
+    // The random number generator used by this model.
+    private final RandomGenerator randomGenerator;
+
+    /** Constructs an empty model of the given window length, with a sketch of
+     *  the given depth and width (rounded up to a power of 2) and a table of
+     *  the given number of contexts, with the given seed. */
+    public SketchModel(int windowLength, int width, int depth, int contexts, int seed) {
+        this(windowLength, width, depth, contexts, new Random(seed));
+    }
+
+    /** Constructs an empty model of the given window length, with a sketch of
+     *  the given depth and width (rounded up to a power of 2) and a table of
+     *  the given number of contexts, which draws from the given random number
+     *  generator. */
+    public SketchModel(int windowLength, int width, int depth, int contexts, RandomGenerator randomGenerator) {
+        if (width < 1 || depth < 1 || contexts < 1) {
+            throw new IllegalArgumentException("width, depth and contexts must be positive: "
+                    + width + ", " + depth + ", " + contexts);
+        }
+        this.windowLength = windowLength;
+        this.windowKeys = new WindowKeys(windowLength);
+        int powerOfTwo = 1;
+        while (powerOfTwo < width) powerOfTwo <<= 1;
+        this.width = powerOfTwo;
+        this.depth = depth;
+        this.randomGenerator = randomGenerator;
+        sketch = new int[this.depth * this.width];
+        contextKeys = new long[contexts];
+        contextCounts = new int[contexts];
+        heap = new int[contexts];
+        heapPosition = new int[contexts];
+        int capacity = 1;
+        while (capacity < 2 * contexts) capacity <<= 1;
+        index = new int[capacity];
+        alphabet = new char[16];
+        seen = new boolean[Character.MAX_VALUE + 1];
+    }
+
+    /** Returns the window length of this model. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the number of windows in the table of contexts. */
+    public int size() {
+        return contexts;
+    }
+
+    /** Returns the number of bytes taken by the arrays of this model. */
+    public long sizeInBytes() {
+        return 4L * sketch.length + 20L * contextKeys.length + 4L * index.length
+                + 2L * alphabet.length + seen.length;
+    }
+
+    /** Trains this model on the text in the given file. */
+    public void train(String fileName) {
+        In input = new In(fileName);
+        try {
+            train(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Trains this model on the text read from the given input, a buffer at a time. */
+    public void train(In input) {
+        char[] buf = new char[windowLength + BUFFER_SIZE];
+        int len = 0;
+        int n;
+        while ((n = input.read(buf, len, buf.length - len)) != -1) {
+            len += n;
+            int end = len - windowLength;
+            if (end <= 0) continue;
+            long key = windowKeys.key(buf, 0);
+            for (int i = 0; i < end; i++) {
+                if (i > 0) key = windowKeys.roll(key, buf[i - 1], buf[i + windowLength - 1]);
+                char chr = buf[i + windowLength];
+                add(key, chr);
+                offer(key);
+                if (!seen[chr]) {
+                    seen[chr] = true;
+                    if (alphabetSize == alphabet.length) alphabet = Arrays.copyOf(alphabet, 2 * alphabetSize);
+                    alphabet[alphabetSize++] = chr;
+                }
+            }
+            System.arraycopy(buf, end, buf, 0, windowLength);
+            len = windowLength;
+        }
+    }
+
+    /** Returns the estimated number of times the given window was followed by
+     *  the given character in training. Never less than the true count. */
+    public int estimate(String window, char chr) {
+        return estimate(windowKeys.key(window.toCharArray(), 0), chr);
+    }
+
+    /** Returns the count of the given window in the table of contexts, or 0 if
+     *  it is not in the table. Once windows were replaced, the count may be
+     *  more than the true count, by at most the count of the least counted
+     *  window in the table. */
+    public int contextCount(String window) {
+        int entry = find(windowKeys.key(window.toCharArray(), 0));
+        return entry == -1 ? 0 : contextCounts[entry];
+    }
+
+    /** Generates a random text from the estimated counts. Stops early if the
+     *  window ending the text is not in the table of contexts, or if none of
+     *  its estimates is positive. */
+    public String generate(String initialText, int textLength) {
+        StringBuilder text = new StringBuilder(initialText.length() + textLength);
+        text.append(initialText);
+        if (initialText.length() < windowLength) return text.toString();
+        char[] window = initialText.substring(initialText.length() - windowLength).toCharArray();
+        long key = windowKeys.key(window, 0);
+        int[] estimates = new int[alphabetSize];
+        int pos = 0;
+        for (int i = 0; i < textLength; i++) {
+            if (find(key) == -1) break;
+            long total = 0;
+            for (int c = 0; c < alphabetSize; c++) {
+                estimates[c] = estimate(key, alphabet[c]);
+                total += estimates[c];
+            }
+            if (total == 0) break;
+            long r = randomGenerator.nextLong(total);
+            int c = 0;
+            while (r >= estimates[c]) r -= estimates[c++];
+            char chr = alphabet[c];
+            text.append(chr);
+            if (windowLength > 0) {
+                key = windowKeys.roll(key, window[pos], chr);
+                window[pos] = chr;
+                if (++pos == windowLength) pos = 0;
+            }
+        }
+        return text.toString();
+    }
+
+    // Adds one to the count of the given window followed by the given
+    // character, incrementing only its least counters (conservative update).
+    private void add(long key, char chr) {
+        long h = hash(key, chr);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int r = 0; r < depth; r++) {
+            min = Math.min(min, sketch[r * width + ((h1 + r * h2) & (width - 1))]);
+        }
+        for (int r = 0; r < depth; r++) {
+            int i = r * width + ((h1 + r * h2) & (width - 1));
+            if (sketch[i] == min) sketch[i] = min + 1;
+        }
+    }
+
+    // Returns the estimated count of the given window followed by the given character.
+    private int estimate(long key, char chr) {
+        long h = hash(key, chr);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int r = 0; r < depth; r++) {
+            min = Math.min(min, sketch[r * width + ((h1 + r * h2) & (width - 1))]);
+        }
+        return min;
+    }
+
+    // Returns a hash of a window key and a character. The rows of the sketch use
+    // the two halves of the hash, combined as h1 + r * h2.
+    private static long hash(long key, char chr) {
+        long h = key + chr * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Counts one occurrence of the given window in the table of contexts. A
+    // window that is not in a full table replaces the least counted one, and
+    // takes its count plus one.
+    private void offer(long key) {
+        int entry = find(key);
+        if (entry != -1) {
+            contextCounts[entry]++;
+            siftDown(heapPosition[entry]);
+            return;
+        }
+        if (contexts < contextKeys.length) {
+            entry = contexts++;
+            contextCounts[entry] = 1;
+            heap[entry] = entry;
+            heapPosition[entry] = entry;
+            contextKeys[entry] = key;
+            insert(entry);
+            siftUp(entry);
+            return;
+        }
+        entry = heap[0];
+        delete(entry);
+        contextKeys[entry] = key;
+        contextCounts[entry]++;
+        insert(entry);
+        siftDown(0);
+    }
+
+    // Returns the entry of the given key in the table of contexts, or -1.
+    private int find(long key) {
+        int mask = index.length - 1;
+        for (int slot = WindowKeys.slot(key, mask); index[slot] != 0; slot = (slot + 1) & mask) {
+            if (contextKeys[index[slot] - 1] == key) return index[slot] - 1;
+        }
+        return -1;
+    }
+
+    // Adds the given entry to the index.
+    private void insert(int entry) {
+        int mask = index.length - 1;
+        int slot = WindowKeys.slot(contextKeys[entry], mask);
+        while (index[slot] != 0) slot = (slot + 1) & mask;
+        index[slot] = entry + 1;
+    }
+
+    // Removes the given entry from the index, shifting back the entries after
+    // it that would no longer be found past the freed slot.
+    private void delete(int entry) {
+        int mask = index.length - 1;
+        int slot = WindowKeys.slot(contextKeys[entry], mask);
+        while (index[slot] != entry + 1) slot = (slot + 1) & mask;
+        index[slot] = 0;
+        for (int next = (slot + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = WindowKeys.slot(contextKeys[index[next] - 1], mask);
+            // moves the entry unless its home is cyclically in (slot, next]
+            boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!stays) {
+                index[slot] = index[next];
+                index[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    // Moves the entry at the given heap position up to its place.
+    private void siftUp(int position) {
+        int entry = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (contextCounts[heap[parent]] <= contextCounts[entry]) break;
+            heap[position] = heap[parent];
+            heapPosition[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = entry;
+        heapPosition[entry] = position;
+    }
+
+    // Moves the entry at the given heap position down to its place.
+    private void siftDown(int position) {
+        int entry = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= contexts) break;
+            if (child + 1 < contexts && contextCounts[heap[child + 1]] < contextCounts[heap[child]]) child++;
+            if (contextCounts[heap[child]] >= contextCounts[entry]) break;
+            heap[position] = heap[child];
+            heapPosition[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = entry;
+        heapPosition[entry] = position;
+    }
+}
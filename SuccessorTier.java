@@ -0,0 +1,18 @@
+/** The representations a TieredCharList moves through as its window gains
+ *  successors or is counted often. A list only ever moves down this list. */
+public enum SuccessorTier {
+
+    /** At most one successor, kept in the fields of the list itself: no
+     *  arrays and no objects per successor. Most windows of length 7 or more
+     *  stay in this tier. */
+    SINGLE,
+
+    /** A few successors, kept in an ArrayCharList and found by a scan. */
+    SMALL,
+
+    /** Many successors, or a few of a window counted often (so generation
+     *  draws from it often): a DenseCharList, which finds a successor through
+     *  a table indexed by the ids of an Alphabet, and draws with a binary
+     *  search. */
+    DENSE
+}
@@ -0,0 +1,241 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+/** A language model that stores no counts: it keeps the corpus, its suffix
+ *  array and its LCP array, and derives the successors of a window when they
+ *  are needed.
+ *  <p>
+ *  The suffixes of the corpus that start with a window are adjacent in the
+ *  suffix array, and are found by binary search. Each of them is one occurrence
+ *  of the window, followed by the character after it, so drawing one of them
+ *  uniformly at random draws the next character with the probability a
+ *  LanguageModel gives it. Memory is 10 bytes per corpus character (the corpus,
+ *  the suffix array and the LCP array) whatever the window length, and the window
+ *  length can be chosen anew for each generated text.
+ *  <p>
+ *  Generation draws one nextInt(occurrences) per character rather than one
+ *  nextDouble, so the texts differ from those of a LanguageModel with the same
+ *  seed, though they follow the same probabilities.
+ *  <p>
+ *  On originofspecies.txt the model takes 9 MB, against 50 MB for a
+ *  LanguageModel of window length 7 and 174 MB for one of length 32, at
+ *  about 2 microseconds per generated character instead of 0.3 to 0.8,
+ *  the cost of the binary search (see LanguageModelBenchmark suffixArray). */
+public class SuffixArrayModel {
+
+    // Beyond this many occurrences of a window, the end of its range of
+    // suffixes is found by binary search instead of by scanning the LCP array.
+    private static final int SCAN_LIMIT = 16;
+
+    // The corpus.
+    private final char[] corpus;
+
+    // The start of each suffix of the corpus, in increasing order of the suffixes.
+    private final int[] suffixes;
+
+    // lcp[i] is the length of the longest common prefix of suffixes i - 1 and i;
+    // lcp[0] is 0.
+    private final int[] lcp;
+
+    // The random number generator used by this model.
+    private final RandomGenerator randomGenerator;
+
+    /** Constructs a model of the given corpus, with the given seed. */
+    public SuffixArrayModel(CharSequence corpus, int seed) {
+        this(corpus, new Random(seed));
+    }
+
+    /** Constructs a model of the given corpus, which draws from the given
+     *  random number generator. */
+    public SuffixArrayModel(CharSequence corpus, RandomGenerator randomGenerator) {
+        this.corpus = corpus.toString().toCharArray();
+        this.randomGenerator = randomGenerator;
+        suffixes = suffixArray(this.corpus);
+        lcp = lcpArray(this.corpus, suffixes);
+    }
+
+    /** Returns the length of the corpus of this model. */
+    public int length() {
+        return corpus.length;
+    }
+
+    /** Returns the number of times the given window occurs in the corpus
+     *  followed by a character. */
+    public int count(CharSequence window) {
+        char[] chars = window.toString().toCharArray();
+        int[] range = range(chars, 0, chars.length);
+        return range[1] - range[0];
+    }
+
+    /** Returns the list of successors of the given window, with their counts
+     *  and probabilities, as in a LanguageModel of the window's length trained
+     *  on the corpus: the characters are in the same order. Returns an empty
+     *  list if the window does not occur. */
+    public List successors(CharSequence window) {
+        char[] chars = window.toString().toCharArray();
+        int[] range = range(chars, 0, chars.length);
+        int[] positions = Arrays.copyOfRange(suffixes, range[0], range[1]);
+        // updates in corpus order, as training does
+        Arrays.sort(positions);
+        List probs = new List();
+        for (int position : positions) {
+            probs.update(corpus[position + chars.length]);
+        }
+        probs.calculateProbabilities();
+        return probs;
+    }
+
+    /** Generates a random text with windows of the given length: each character
+     *  is drawn from the occurrences in the corpus of the window ending the text
+     *  so far. Stops early if that window does not occur; returns the initial
+     *  text if it is shorter than the window length. */
+    public String generate(String initialText, int textLength, int windowLength) {
+        if (initialText.length() < windowLength) return initialText;
+        StringBuilder text = new StringBuilder(initialText.length() + textLength);
+        text.append(initialText);
+        char[] window = new char[windowLength];
+        initialText.getChars(initialText.length() - windowLength, initialText.length(), window, 0);
+        for (int i = 0; i < textLength; i++) {
+            int[] range = range(window, 0, windowLength);
+            int occurrences = range[1] - range[0];
+            if (occurrences == 0) break;
+            int position = suffixes[range[0] + randomGenerator.nextInt(occurrences)];
+            char chr = corpus[position + windowLength];
+            text.append(chr);
+            if (windowLength > 0) {
+                System.arraycopy(window, 1, window, 0, windowLength - 1);
+                window[windowLength - 1] = chr;
+            }
+        }
+        return text.toString();
+    }
+
+    // Returns the range [from, to) of the suffix array holding the occurrences of
+    // the given window (len characters of buf from off) that are followed by a
+    // character.
+    private int[] range(char[] buf, int off, int len) {
+        int from = lowerBound(buf, off, len);
+        int to = from;
+        if (from < suffixes.length && compare(suffixes[from], buf, off, len) == 0) {
+            // the suffixes in the range share at least len characters with the previous one
+            to = from + 1;
+            while (to < suffixes.length && to - from < SCAN_LIMIT && lcp[to] >= len) to++;
+            if (to < suffixes.length && lcp[to] >= len) to = upperBound(buf, off, len, to);
+            // the occurrence that ends the corpus, if any, is a suffix of length
+            // len, which comes first in the range
+            if (suffixes[from] + len == corpus.length) from++;
+        }
+        return new int[] {from, to};
+    }
+
+    // Returns the first index of the suffix array whose suffix is not less than
+    // the given window in its first len characters.
+    private int lowerBound(char[] buf, int off, int len) {
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(suffixes[mid], buf, off, len) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Returns the first index, from the given one on, of the suffix array whose
+    // suffix is greater than the given window in its first len characters.
+    private int upperBound(char[] buf, int off, int len, int low) {
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(suffixes[mid], buf, off, len) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Compares the first len characters of the suffix starting at the given
+    // position with the given window. A suffix shorter than the window that
+    // matches it is less than it.
+    private int compare(int position, char[] buf, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (position + i == corpus.length) return -1;
+            char c = corpus[position + i];
+            if (c != buf[off + i]) return c < buf[off + i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    // Returns the suffix array of the given text, built by prefix doubling: the
+    // suffixes are sorted by their first k characters, then by their first 2k
+    // as pairs of ranks, with counting sorts.
+    private static int[] suffixArray(char[] text) {
+        int n = text.length;
+        int[] sa = new int[n];
+        int[] rank = new int[n];
+        int[] tmp = new int[n];
+        if (n == 0) return sa;
+        // sorts by first character
+        int[] count = new int[Character.MAX_VALUE + 2];
+        for (char c : text) count[c + 1]++;
+        for (int c = 1; c < count.length; c++) count[c] += count[c - 1];
+        for (int i = 0; i < n; i++) sa[count[text[i]]++] = i;
+        rank[sa[0]] = 0;
+        for (int i = 1; i < n; i++) {
+            rank[sa[i]] = rank[sa[i - 1]] + (text[sa[i]] != text[sa[i - 1]] ? 1 : 0);
+        }
+        count = new int[n + 1];
+        for (int k = 1; rank[sa[n - 1]] < n - 1; k <<= 1) {
+            // orders by second rank: the suffixes with none first, then by sa
+            int p = 0;
+            for (int i = n - k; i < n; i++) tmp[p++] = i;
+            for (int i = 0; i < n; i++) {
+                if (sa[i] >= k) tmp[p++] = sa[i] - k;
+            }
+            // stable counting sort by first rank
+            Arrays.fill(count, 0);
+            for (int i = 0; i < n; i++) count[rank[i] + 1]++;
+            for (int r = 1; r <= n; r++) count[r] += count[r - 1];
+            for (int i = 0; i < n; i++) sa[count[rank[tmp[i]]]++] = tmp[i];
+            // ranks the pairs
+            tmp[sa[0]] = 0;
+            for (int i = 1; i < n; i++) {
+                int a = sa[i - 1];
+                int b = sa[i];
+                boolean same = rank[a] == rank[b]
+                        && (a + k < n ? rank[a + k] : -1) == (b + k < n ? rank[b + k] : -1);
+                tmp[b] = tmp[a] + (same ? 0 : 1);
+            }
+            int[] swap = rank;
+            rank = tmp;
+            tmp = swap;
+        }
+        return sa;
+    }
+
+    // Returns the LCP array of the given text and suffix array (Kasai's algorithm).
+    private static int[] lcpArray(char[] text, int[] sa) {
+        int n = text.length;
+        int[] rank = new int[n];
+        for (int i = 0; i < n; i++) rank[sa[i]] = i;
+        int[] lcp = new int[n];
+        int h = 0;
+        for (int i = 0; i < n; i++) {
+            if (rank[i] > 0) {
+                int j = sa[rank[i] - 1];
+                while (i + h < n && j + h < n && text[i + h] == text[j + h]) h++;
+                lcp[rank[i]] = h;
+                if (h > 0) h--;
+            } else {
+                h = 0;
+            }
+        }
+        return lcp;
+    }
+}
@@ -0,0 +1,546 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+/** A language model of the symbols of a corpus rather than its characters.
+ *  Training first reads the corpus once to number its distinct characters
+ *  densely (an Alphabet), and then counts it as symbol ids; characters come
+ *  back only when a text is generated.
+ *  <p>
+ *  With an alphabet of A symbols, a symbol takes b = ceil(log2(A)) bits in a
+ *  window key and 1 byte (2 bytes if A is more than 256) where it is stored.
+ *  Windows of up to 64 / b symbols are packed exactly into their long key, and
+ *  are not stored at all: for the 7-bit alphabets of the bundled corpora, that
+ *  is windows of up to 9 characters, against 4 for WindowKeys. Longer windows
+ *  are keyed by a hash and stored as symbols, to verify hits.
+ *  <p>
+ *  In training, the successors of a window are counted in a table of (window
+ *  id, symbol) pairs, with no objects per window or successor. A window that
+ *  reaches A / 6 distinct successors (at least 2) moves to a dense row of A
+ *  counts indexed by symbol id, which is smaller than that many pairs and
+ *  counted without hashing. A model is trained once: training ends by laying
+ *  out the successors of each window, in symbol order, with their running
+ *  counts (4 bytes per window and 5 or 6 per successor), and dropping the
+ *  counting tables. Generation draws with nextInt(total count) and a binary
+ *  search, so it does not draw the texts LanguageModel does for a seed.
+ *  <p>
+ *  As measured by "java LanguageModelBenchmark symbols" on originofspecies.txt
+ *  (97 symbols), at window length 7 a model takes 15 MB of heap against 50 MB
+ *  for a LanguageModel, and generates in a third of the time. */
+public class SymbolModel {
+
+    // The number of corpus characters read at a time.
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The multiplier of the polynomial hash of windows that do not fit in a key.
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    // The initial number of slots in the tables (a power of 2).
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The random number generator used by this model.
+    private final RandomGenerator randomGenerator;
+
+    // The symbols of the corpus, or null until the model is trained.
+    private Alphabet alphabet;
+
+    // The number of bits of a symbol in a key, and of bytes where it is stored.
+    private int bits;
+    private int symbolBytes;
+
+    // Whether windows are packed exactly into their keys, and what rolls a key:
+    // the mask of a packed key, or HASH_MULTIPLIER^(windowLength - 1).
+    private boolean exact;
+    private long rollFactor;
+
+    // The key in each slot of the window table, and the id + 1 of its window (0 if empty).
+    private long[] keys;
+    private int[] slots;
+
+    // The number of windows.
+    private int size;
+
+    // The symbols of the windows that are not packed exactly, by id.
+    private byte[] windows;
+
+    // The number of distinct successors of each window, and its dense row, or
+    // -1 if its successors are in the pair table. Null once trained, as are the
+    // dense rows and the pair table.
+    private int[] distinct;
+    private int[] denseRows;
+
+    // The dense rows, A counts each, and the number of rows.
+    private int[] dense;
+    private int denseSize;
+
+    // The number of distinct successors at which a window moves to a dense row.
+    private int denseThreshold;
+
+    // The (window id, symbol) pair + 1 in each slot of the pair table (0 if
+    // empty), its count, and the number of pairs.
+    private long[] pairKeys;
+    private int[] pairCounts;
+    private int pairs;
+
+    // The successors of window id are at positions [offsets[id], offsets[id + 1])
+    // of successors (symbols, in increasing order) and cumulative (running
+    // counts). Null until the model is trained.
+    private int[] offsets;
+    private byte[] successors;
+    private int[] cumulative;
+
+    /** Constructs an empty model of the given window length, with the given seed. */
+    public SymbolModel(int windowLength, int seed) {
+        this(windowLength, new Random(seed));
+    }
+
+    /** Constructs an empty model of the given window length, which draws from
+     *  the given random number generator. */
+    public SymbolModel(int windowLength, RandomGenerator randomGenerator) {
+        this.windowLength = windowLength;
+        this.randomGenerator = randomGenerator;
+    }
+
+    /** Returns the window length of this model. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the number of windows in this model. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of distinct characters of the corpus (0 before training). */
+    public int getAlphabetSize() {
+        return alphabet == null ? 0 : alphabet.size();
+    }
+
+    /** Returns the number of bits of a symbol in a window key. */
+    public int getBitsPerSymbol() {
+        return bits;
+    }
+
+    /** Checks if windows are packed exactly into their keys, rather than hashed. */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /** Returns the number of windows whose successors are counted in dense rows. */
+    public int denseWindows() {
+        return denseSize;
+    }
+
+    /** Returns the number of bytes taken by the arrays of this model,
+     *  including the lookup table of its alphabet. */
+    public long sizeInBytes() {
+        if (alphabet == null) return 0;
+        return 4L * (Character.MAX_VALUE + 1) + 2L * alphabet.size() + 12L * keys.length
+                + windows.length + 4L * offsets.length + successors.length + 4L * cumulative.length;
+    }
+
+    /** Trains this model on the text in the given file, which is read twice:
+     *  once for its alphabet, and once to count it. */
+    public void train(String fileName) {
+        checkUntrained();
+        In input = new In(fileName);
+        Alphabet symbols = new Alphabet();
+        try {
+            char[] buf = new char[BUFFER_SIZE];
+            int n;
+            while ((n = input.read(buf, 0, buf.length)) != -1) {
+                for (int i = 0; i < n; i++) symbols.add(buf[i]);
+            }
+        } finally {
+            input.close();
+        }
+        start(symbols);
+        input = new In(fileName);
+        try {
+            count(input);
+        } finally {
+            input.close();
+        }
+        compact();
+    }
+
+    /** Trains this model on the given corpus (a text, not a file name). */
+    public void trainCorpus(CharSequence corpus) {
+        checkUntrained();
+        Alphabet symbols = new Alphabet();
+        for (int i = 0; i < corpus.length(); i++) symbols.add(corpus.charAt(i));
+        start(symbols);
+        int[] buf = new int[windowLength + BUFFER_SIZE];
+        int len = 0;
+        for (int from = 0; from < corpus.length(); ) {
+            int n = Math.min(buf.length - len, corpus.length() - from);
+            for (int i = 0; i < n; i++) buf[len + i] = alphabet.id(corpus.charAt(from + i));
+            from += n;
+            len = count(buf, len + n);
+        }
+        compact();
+    }
+
+    /** Returns the number of times the given window was followed by the given
+     *  character in training. */
+    public int count(String window, char chr) {
+        if (alphabet == null || window.length() != windowLength || alphabet.id(chr) == -1) return 0;
+        int[] buf = new int[windowLength];
+        for (int i = 0; i < windowLength; i++) {
+            buf[i] = alphabet.id(window.charAt(i));
+            if (buf[i] == -1) return 0;
+        }
+        int id = find(key(buf, 0), buf, 0);
+        if (id == -1) return 0;
+        int s = alphabet.id(chr);
+        int low = offsets[id];
+        int high = offsets[id + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int symbol = symbol(successors, mid);
+            if (symbol < s) {
+                low = mid + 1;
+            } else if (symbol > s) {
+                high = mid - 1;
+            } else {
+                return cumulative[mid] - (mid == offsets[id] ? 0 : cumulative[mid - 1]);
+            }
+        }
+        return 0;
+    }
+
+    /** Generates a random text, starting with the given initial text. Stops
+     *  early if the window ending the text was not seen in training. */
+    public String generate(String initialText, int textLength) {
+        StringBuilder text = new StringBuilder(initialText.length() + textLength);
+        text.append(initialText);
+        if (alphabet == null || initialText.length() < windowLength) return text.toString();
+        // The window is ring[pos, pos + windowLength); each symbol is stored
+        // twice, windowLength apart, so the window never wraps around.
+        int[] ring = new int[2 * windowLength];
+        int start = initialText.length() - windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            ring[i] = ring[i + windowLength] = alphabet.id(initialText.charAt(start + i));
+            if (ring[i] == -1) return text.toString();
+        }
+        long key = key(ring, 0);
+        int pos = 0;
+        for (int i = 0; i < textLength; i++) {
+            int id = find(key, ring, pos);
+            if (id == -1) break;
+            // the first successor whose running count is more than r
+            int low = offsets[id];
+            int high = offsets[id + 1] - 1;
+            int r = randomGenerator.nextInt(cumulative[high]);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] > r) high = mid;
+                else low = mid + 1;
+            }
+            int s = symbol(successors, low);
+            text.append(alphabet.charAt(s));
+            if (windowLength > 0) {
+                key = roll(key, ring[pos], s);
+                ring[pos] = ring[pos + windowLength] = s;
+                if (++pos == windowLength) pos = 0;
+            }
+        }
+        return text.toString();
+    }
+
+    // Throws an IllegalStateException if this model is already trained.
+    private void checkUntrained() {
+        if (alphabet != null) throw new IllegalStateException("The model is already trained");
+    }
+
+    // Sets up the encoding and the empty tables of the given alphabet.
+    private void start(Alphabet symbols) {
+        alphabet = symbols;
+        int a = alphabet.size();
+        bits = 32 - Integer.numberOfLeadingZeros(Math.max(a - 1, 1));
+        symbolBytes = a <= 256 ? 1 : 2;
+        exact = (long) windowLength * bits <= 64;
+        if (exact) {
+            rollFactor = windowLength * bits == 64 ? -1L : (1L << (windowLength * bits)) - 1;
+        } else {
+            long power = 1;
+            for (int i = 1; i < windowLength; i++) power *= HASH_MULTIPLIER;
+            rollFactor = power;
+        }
+        denseThreshold = Math.max(2, a / 6);
+        keys = new long[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY];
+        windows = new byte[exact ? 0 : INITIAL_CAPACITY / 2 * windowLength * symbolBytes];
+        distinct = new int[INITIAL_CAPACITY / 2];
+        denseRows = new int[INITIAL_CAPACITY / 2];
+        dense = new int[0];
+        pairKeys = new long[INITIAL_CAPACITY];
+        pairCounts = new int[INITIAL_CAPACITY];
+    }
+
+    // Counts the text read from the given input, a buffer at a time.
+    private void count(In input) {
+        char[] chars = new char[BUFFER_SIZE];
+        int[] buf = new int[windowLength + BUFFER_SIZE];
+        int len = 0;
+        int n;
+        while ((n = input.read(chars, 0, Math.min(chars.length, buf.length - len))) != -1) {
+            for (int i = 0; i < n; i++) buf[len + i] = alphabet.id(chars[i]);
+            len = count(buf, len + n);
+        }
+    }
+
+    // Counts every window in buf[0, len) that is followed by a symbol in the
+    // buffer, then moves the last windowLength symbols to the front of the
+    // buffer. Returns the new length of the buffer.
+    private int count(int[] buf, int len) {
+        int end = len - windowLength;
+        if (end <= 0) return len;
+        long key = key(buf, 0);
+        for (int i = 0; i < end; i++) {
+            if (i > 0) key = roll(key, buf[i - 1], buf[i + windowLength - 1]);
+            add(add(key, buf, i), buf[i + windowLength]);
+        }
+        System.arraycopy(buf, end, buf, 0, windowLength);
+        return windowLength;
+    }
+
+    // Returns the key of the window of symbols that starts at index off of buf.
+    private long key(int[] buf, int off) {
+        long key = 0;
+        for (int i = 0; i < windowLength; i++) {
+            key = exact ? (key << bits) | buf[off + i] : key * HASH_MULTIPLIER + buf[off + i];
+        }
+        return key;
+    }
+
+    // Returns the key of the window that follows the window of the given key:
+    // without its first symbol (out), followed by in.
+    private long roll(long key, int out, int in) {
+        if (exact) return ((key << bits) | in) & rollFactor;
+        return (key - out * rollFactor) * HASH_MULTIPLIER + in;
+    }
+
+    // Returns the id of the window of the given key that starts at index off
+    // of buf, or -1 if it is not in this model.
+    private int find(long key, int[] buf, int off) {
+        int mask = slots.length - 1;
+        for (int slot = WindowKeys.slot(key, mask); slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && matches(slots[slot] - 1, buf, off)) return slots[slot] - 1;
+        }
+        return -1;
+    }
+
+    // Returns the id of the window of the given key that starts at index off
+    // of buf, adding the window if it is not in this model.
+    private int add(long key, int[] buf, int off) {
+        int mask = slots.length - 1;
+        int slot = WindowKeys.slot(key, mask);
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && matches(slots[slot] - 1, buf, off)) return slots[slot] - 1;
+        }
+        int id = size++;
+        if (id == distinct.length) {
+            distinct = Arrays.copyOf(distinct, 2 * id);
+            denseRows = Arrays.copyOf(denseRows, 2 * id);
+            if (!exact) windows = Arrays.copyOf(windows, 2 * id * windowLength * symbolBytes);
+        }
+        denseRows[id] = -1;
+        if (!exact) {
+            for (int i = 0; i < windowLength; i++) setSymbol(windows, id * windowLength + i, buf[off + i]);
+        }
+        keys[slot] = key;
+        slots[slot] = id + 1;
+        if (2 * size > slots.length) rehashWindows(2 * slots.length);
+        return id;
+    }
+
+    // Checks if the window with the given id equals the window starting at index off of buf.
+    private boolean matches(int id, int[] buf, int off) {
+        if (exact) return true;
+        int start = id * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (symbol(windows, start + i) != buf[off + i]) return false;
+        }
+        return true;
+    }
+
+    // Moves all the windows to a new table with the given number of slots.
+    private void rehashWindows(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[capacity];
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0) continue;
+            int slot = WindowKeys.slot(oldKeys[i], mask);
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            slots[slot] = oldSlots[i];
+        }
+    }
+
+    // Counts one occurrence of the window with the given id followed by the given symbol.
+    private void add(int id, int s) {
+        if (denseRows[id] != -1) {
+            if (dense[denseRows[id] * alphabet.size() + s]++ == 0) distinct[id]++;
+            return;
+        }
+        long key = pairKey(id, s);
+        int mask = pairKeys.length - 1;
+        int slot = WindowKeys.slot(key, mask);
+        for (; pairKeys[slot] != 0; slot = (slot + 1) & mask) {
+            if (pairKeys[slot] == key) {
+                pairCounts[slot]++;
+                return;
+            }
+        }
+        pairKeys[slot] = key;
+        pairCounts[slot] = 1;
+        pairs++;
+        if (++distinct[id] >= denseThreshold) {
+            moveToDense(id);
+        } else if (2 * pairs > pairKeys.length) {
+            rehashPairs(2 * pairKeys.length);
+        }
+    }
+
+    // Returns the key of a pair in the pair table: the pair + 1, so that no key is 0.
+    private static long pairKey(int id, int s) {
+        return ((long) id << 16 | s) + 1;
+    }
+
+    // Returns the slot of the given pair key in the pair table, or -1.
+    private int findPair(long key) {
+        int mask = pairKeys.length - 1;
+        for (int slot = WindowKeys.slot(key, mask); pairKeys[slot] != 0; slot = (slot + 1) & mask) {
+            if (pairKeys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    // Moves the successors of the window with the given id from the pair table
+    // to a new dense row.
+    private void moveToDense(int id) {
+        int a = alphabet.size();
+        int row = denseSize++;
+        if ((long) denseSize * a > dense.length) {
+            dense = Arrays.copyOf(dense, Math.max(2 * dense.length, denseSize * a));
+        }
+        for (int s = 0; s < a; s++) {
+            int slot = findPair(pairKey(id, s));
+            if (slot == -1) continue;
+            dense[row * a + s] = pairCounts[slot];
+            deletePair(slot);
+        }
+        denseRows[id] = row;
+    }
+
+    // Removes the pair in the given slot, shifting back the pairs after it that
+    // would no longer be found past the freed slot.
+    private void deletePair(int slot) {
+        int mask = pairKeys.length - 1;
+        pairKeys[slot] = 0;
+        pairs--;
+        for (int next = (slot + 1) & mask; pairKeys[next] != 0; next = (next + 1) & mask) {
+            int home = WindowKeys.slot(pairKeys[next], mask);
+            // moves the pair unless its home is cyclically in (slot, next]
+            boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!stays) {
+                pairKeys[slot] = pairKeys[next];
+                pairCounts[slot] = pairCounts[next];
+                pairKeys[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    // Moves all the pairs to a new table with the given number of slots.
+    private void rehashPairs(int capacity) {
+        long[] oldKeys = pairKeys;
+        int[] oldCounts = pairCounts;
+        pairKeys = new long[capacity];
+        pairCounts = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = WindowKeys.slot(oldKeys[i], mask);
+            while (pairKeys[slot] != 0) slot = (slot + 1) & mask;
+            pairKeys[slot] = oldKeys[i];
+            pairCounts[slot] = oldCounts[i];
+        }
+    }
+
+    // Lays out the successors of each window, in symbol order, with their
+    // running counts, and drops the counting tables.
+    private void compact() {
+        int a = alphabet.size();
+        offsets = new int[size + 1];
+        for (int id = 0; id < size; id++) offsets[id + 1] = offsets[id] + distinct[id];
+        successors = new byte[offsets[size] * symbolBytes];
+        cumulative = new int[offsets[size]];
+        int[] fill = Arrays.copyOf(offsets, size);
+        for (int slot = 0; slot < pairKeys.length; slot++) {
+            if (pairKeys[slot] == 0) continue;
+            long pair = pairKeys[slot] - 1;
+            int id = (int) (pair >>> 16);
+            int i = fill[id]++;
+            setSymbol(successors, i, (int) pair & 0xFFFF);
+            cumulative[i] = pairCounts[slot];
+        }
+        for (int id = 0; id < size; id++) {
+            if (denseRows[id] != -1) {
+                for (int s = 0; s < a; s++) {
+                    int count = dense[denseRows[id] * a + s];
+                    if (count == 0) continue;
+                    int i = fill[id]++;
+                    setSymbol(successors, i, s);
+                    cumulative[i] = count;
+                }
+                continue;
+            }
+            // few successors: sorts them by symbol, by insertion
+            for (int i = offsets[id] + 1; i < offsets[id + 1]; i++) {
+                int s = symbol(successors, i);
+                int count = cumulative[i];
+                int j = i - 1;
+                while (j >= offsets[id] && symbol(successors, j) > s) {
+                    setSymbol(successors, j + 1, symbol(successors, j));
+                    cumulative[j + 1] = cumulative[j];
+                    j--;
+                }
+                setSymbol(successors, j + 1, s);
+                cumulative[j + 1] = count;
+            }
+        }
+        for (int id = 0; id < size; id++) {
+            for (int i = offsets[id] + 1; i < offsets[id + 1]; i++) cumulative[i] += cumulative[i - 1];
+        }
+        if (!exact) windows = Arrays.copyOf(windows, size * windowLength * symbolBytes);
+        distinct = null;
+        denseRows = null;
+        dense = null;
+        pairKeys = null;
+        pairCounts = null;
+    }
+
+    // Returns the symbol at index i of the given array of stored symbols.
+    private int symbol(byte[] arr, int i) {
+        if (symbolBytes == 1) return arr[i] & 0xFF;
+        return (arr[2 * i] & 0xFF) << 8 | arr[2 * i + 1] & 0xFF;
+    }
+
+    // Stores the given symbol at index i of the given array of stored symbols.
+    private void setSymbol(byte[] arr, int i, int s) {
+        if (symbolBytes == 1) {
+            arr[i] = (byte) s;
+        } else {
+            arr[2 * i] = (byte) (s >>> 8);
+            arr[2 * i + 1] = (byte) s;
+        }
+    }
+}
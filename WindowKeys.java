@@ -0,0 +1,71 @@
+/** Computes the keys of windows (strings of a fixed length) for the hash
+ *  tables of ContextMap and FrozenModel.
+ *  <p>
+ *  Windows of up to MAX_PACKED_LENGTH characters are packed exactly into a
+ *  long key, so equal keys mean equal windows. Longer windows are keyed by a
+ *  64-bit polynomial hash, so a table must verify a hit against the window
+ *  itself. Both kinds of keys can be rolled along a text one character at a
+ *  time. */
+public class WindowKeys {
+
+    // The longest window whose characters fit exactly in a long key.
+    static final int MAX_PACKED_LENGTH = 4;
+
+    // The multiplier of the polynomial hash of longer windows (any odd number works).
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    // The length of the windows.
+    private final int windowLength;
+
+    // Used to roll keys: the mask of a packed key, or HASH_MULTIPLIER^(windowLength - 1).
+    private final long rollFactor;
+
+    /** Constructs a key function for windows of the given length. */
+    public WindowKeys(int windowLength) {
+        this.windowLength = windowLength;
+        if (windowLength <= MAX_PACKED_LENGTH) {
+            rollFactor = windowLength == MAX_PACKED_LENGTH ? -1L : (1L << (16 * windowLength)) - 1;
+        } else {
+            long power = 1;
+            for (int i = 1; i < windowLength; i++) power *= HASH_MULTIPLIER;
+            rollFactor = power;
+        }
+    }
+
+    /** Returns the length of the windows. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Checks if equal keys always mean equal windows. */
+    public boolean isExact() {
+        return windowLength <= MAX_PACKED_LENGTH;
+    }
+
+    /** Returns the key of the window that starts at index off of the given array. */
+    public long key(char[] buf, int off) {
+        long key = 0;
+        if (windowLength <= MAX_PACKED_LENGTH) {
+            for (int i = 0; i < windowLength; i++) key = (key << 16) | buf[off + i];
+        } else {
+            for (int i = 0; i < windowLength; i++) key = key * HASH_MULTIPLIER + buf[off + i];
+        }
+        return key;
+    }
+
+    /** Given the key of a window, returns the key of the window that follows it
+     *  in a text: the window without its first character (out), followed by in. */
+    public long roll(long key, char out, char in) {
+        if (windowLength <= MAX_PACKED_LENGTH) return ((key << 16) | in) & rollFactor;
+        return (key - out * rollFactor) * HASH_MULTIPLIER + in;
+    }
+
+    /** Returns the home slot of the given key in a table with the given mask
+     *  (the number of slots, a power of 2, minus 1). */
+    public static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+}